@@ -52,6 +52,20 @@ public class AuthPxRest extends PxRestControllerBase {
         return Map.of("success", true);
     }
 
+    /**
+     * Public keys to verify the tokens, for the services validating them locally
+     *
+     * @return JWKS document
+     */
+    @GetMapping(".well-known/jwks.json")
+    public Map<String, Object> jwks() {
+        Map<String, Object> jwks = jwtService.getJwks();
+        if (jwks == null) {
+            throw new PxException(HttpStatus.NOT_FOUND, "Tokens are not signed with a public key");
+        }
+        return jwks;
+    }
+
     /**
      * Attempt to login
      *
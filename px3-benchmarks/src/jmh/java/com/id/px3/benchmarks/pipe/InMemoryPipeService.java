@@ -0,0 +1,81 @@
+package com.id.px3.benchmarks.pipe;
+
+import com.id.px3.pipe.codec.PipeCodecs;
+import com.id.px3.pipe.config.PipeReaderOptions;
+import com.id.px3.pipe.logic.PipePacketSerde;
+import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.service.PipeService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Pipe service delivering the packets in memory instead of through Kafka, so that the RPC layer can be measured without a broker.
+ * Packets still go through the record serde, and listeners run on a pool like the readers of the real service.
+ */
+public class InMemoryPipeService extends PipeService {
+
+    private final ConcurrentMap<String, Consumer<PipePacket>> listeners = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> readerTopics = new ConcurrentHashMap<>();
+    private final ExecutorService deliveryExecutor = Executors.newCachedThreadPool();
+    private final PipePacketSerde serde;
+
+    public InMemoryPipeService(String codec) {
+        super(new DefaultListableBeanFactory().getBeanProvider(MeterRegistry.class),
+                "60s", codec, "default", "", "", "", "", "");
+        this.serde = new PipePacketSerde(PipeCodecs.forName(codec));
+    }
+
+    @Override
+    public PipePacket send(String sender, String recipient, Map<String, Object> payload, String funcName, String reqId, Instant deadline) {
+        Instant now = Instant.now();
+        PipePacket packet = new PipePacket("%s-%d".formatted(UUID.randomUUID().toString(), now.toEpochMilli()),
+                reqId, funcName, now, sender, recipient, payload != null ? payload : Map.of(), deadline);
+
+        Consumer<PipePacket> listener = listeners.get(recipient);
+        if (listener != null) {
+            byte[] body = serde.toBody(packet);
+            ConsumerRecord<String, byte[]> record = new ConsumerRecord<>(recipient, 0, 0L, now.toEpochMilli(),
+                    TimestampType.CREATE_TIME, -1, body.length, null, body, new RecordHeaders(serde.toHeaders(packet)), Optional.empty());
+            deliveryExecutor.execute(() -> listener.accept(serde.fromRecord(record)));
+        }
+        return packet;
+    }
+
+    @Override
+    public synchronized void registerReader(String readerId, String recipient, Consumer<PipePacket> listener, PipeReaderOptions options) {
+        if (listeners.putIfAbsent(recipient, listener) != null) {
+            throw new IllegalStateException("Listener already registered for recipient: " + recipient);
+        }
+        readerTopics.put(readerId, recipient);
+    }
+
+    @Override
+    public synchronized void unregisterReader(String readerId) {
+        String recipient = readerTopics.remove(readerId);
+        if (recipient != null) {
+            listeners.remove(recipient);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        deliveryExecutor.shutdownNow();
+        listeners.clear();
+        readerTopics.clear();
+        super.shutdown();
+    }
+
+}
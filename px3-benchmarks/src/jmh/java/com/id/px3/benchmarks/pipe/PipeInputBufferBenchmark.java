@@ -0,0 +1,100 @@
+package com.id.px3.benchmarks.pipe;
+
+import com.id.px3.pipe.logic.PipeInputBuffer;
+import com.id.px3.pipe.model.PipePacket;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Push, lookup and eviction cost of the input buffer, on heap and off heap, at various fill levels.
+ * The contended group pushes from one thread, as the consumer does, while three threads look packets up,
+ * which measures the single write lock of the off-heap store against its lock-free reads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class PipeInputBufferBenchmark {
+
+    @Param({"1000", "100000"})
+    private int packetCount;
+
+    @Param({"false", "true"})
+    private boolean offHeap;
+
+    private PipePacket[] packets;
+    private PipeInputBuffer buffer;
+    private PipeInputBuffer evictingBuffer;
+    private int next;
+    private long pushed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        packets = new PipePacket[packetCount];
+        Instant now = Instant.now();
+        for (int i = 0; i < packetCount; i++) {
+            packets[i] = new PipePacket("pack-" + i, "req-" + i, "func", now, "sndr", "rcpt",
+                    Map.of("index", i, "name", "packet-" + i, "value", i * 0.5));
+        }
+
+        // Large enough to hold every packet, pushes replace packets with the same ID
+        buffer = new PipeInputBuffer(Duration.ofHours(1), 1024, offHeap);
+        for (PipePacket packet : packets) {
+            buffer.push(packet);
+        }
+
+        // Full from the start, every push evicts the oldest packet
+        evictingBuffer = new PipeInputBuffer(Duration.ofHours(1), 1, offHeap);
+        for (int i = 0; evictingBuffer.getTotalPacketSize() < 1024 * 1024 - 1024; i++) {
+            evictingBuffer.push(new PipePacket("fill-" + i, null, "func", now, "sndr", "rcpt", Map.of("index", i)));
+        }
+    }
+
+    @Benchmark
+    public void push() {
+        buffer.push(packets[nextIndex()]);
+    }
+
+    @Benchmark
+    public PipePacket peekByReqId() {
+        return buffer.peekByReqId(packets[nextIndex()].getReqId());
+    }
+
+    @Benchmark
+    public Object peekAndDecode() {
+        // Off heap, the payload is decoded on access
+        return buffer.peekByReqId(packets[nextIndex()].getReqId()).getPayloadValue("name");
+    }
+
+    @Benchmark
+    public void pushWithEviction() {
+        PipePacket packet = packets[nextIndex()];
+        evictingBuffer.push(new PipePacket("evict-" + pushed++, packet.getReqId(), packet.getFunc(),
+                packet.getTs(), packet.getSndr(), packet.getRcpt(), packet.getPayload()));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void contendedPush() {
+        // Replaces a packet, freeing its slot and eventually recycling slabs under the readers
+        buffer.push(packets[ThreadLocalRandom.current().nextInt(packetCount)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public PipePacket contendedPeek() {
+        return buffer.peekByReqId(packets[ThreadLocalRandom.current().nextInt(packetCount)].getReqId());
+    }
+
+    private int nextIndex() {
+        next = next + 1 == packetCount ? 0 : next + 1;
+        return next;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.id.px3.benchmarks.pipe;
+
+import com.id.px3.pipe.codec.PipeCodecs;
+import com.id.px3.pipe.logic.PipePacketSerde;
+import com.id.px3.pipe.model.PipePacket;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Packet serialization and deserialization throughput, by codec and payload size
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+public class PipePacketSerdeBenchmark {
+
+    @Param({"binary", "gson"})
+    private String codec;
+
+    @Param({"small", "large"})
+    private String payloadSize;
+
+    private PipePacketSerde serde;
+    private PipePacket packet;
+    private ConsumerRecord<String, byte[]> record;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        serde = new PipePacketSerde(PipeCodecs.forName(codec));
+        packet = new PipePacket("pack-1", "req-1", "func", Instant.now(), "sndr", "rcpt", payload("large".equals(payloadSize)));
+
+        byte[] body = serde.toBody(packet);
+        List<Header> headers = serde.toHeaders(packet);
+        record = new ConsumerRecord<>("rcpt", 0, 0L, System.currentTimeMillis(), TimestampType.CREATE_TIME,
+                -1, body.length, null, body, new RecordHeaders(headers), Optional.empty());
+    }
+
+    @Benchmark
+    public void serialize(Blackhole blackhole) {
+        blackhole.consume(serde.toHeaders(packet));
+        blackhole.consume(serde.toBody(packet));
+    }
+
+    @Benchmark
+    public Map<String, Object> deserialize() {
+        // Payload is decoded lazily, access it to measure the full decoding
+        return serde.fromRecord(record).getPayload();
+    }
+
+    @Benchmark
+    public Object deserializeHeadersOnly() {
+        return serde.fromRecord(record).getReqId();
+    }
+
+    private static Map<String, Object> payload(boolean large) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("id", "0f8fad5b-d9cb-469f-a165-70867728950e");
+        payload.put("count", 42L);
+        payload.put("ratio", 0.75);
+        payload.put("active", true);
+        if (large) {
+            List<Map<String, Object>> items = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                items.add(Map.of("index", (long) i, "name", "item-" + i, "tags", List.of("a", "b", "c")));
+            }
+            payload.put("items", items);
+            payload.put("text", "x".repeat(4096));
+        }
+        return payload;
+    }
+
+}
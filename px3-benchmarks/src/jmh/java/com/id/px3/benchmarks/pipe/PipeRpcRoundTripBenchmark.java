@@ -0,0 +1,69 @@
+package com.id.px3.benchmarks.pipe;
+
+import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.model.PipeRpcResult;
+import com.id.px3.pipe.service.PipeRpcClient;
+import com.id.px3.pipe.service.PipeRpcServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RPC round trip from client to server and back, over the in-memory pipe.
+ * Measures the RPC layer: correlation, dedup cache, timeouts and serde, without the broker.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class PipeRpcRoundTripBenchmark {
+
+    private static final String FUNC_NAME = "echo";
+
+    @Param({"binary", "gson"})
+    private String codec;
+
+    private InMemoryPipeService pipeService;
+    private PipeRpcServer server;
+    private PipeRpcClient client;
+    private Map<String, Object> params;
+    private List<Map<String, Object>> batchParams;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pipeService = new InMemoryPipeService(codec);
+        server = new PipeRpcServer(pipeService, 8, "120s", 10_000, "60s");
+        client = new PipeRpcClient(pipeService, "10s", 1);
+        server.serve(FUNC_NAME, packet -> PipeRpcResult.ok(Map.of("echo", packet.getPayloadValue("data"))));
+
+        params = Map.of("data", "0f8fad5b-d9cb-469f-a165-70867728950e", "count", 42L);
+        batchParams = List.of(params, params, params, params, params, params, params, params, params, params);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.close();
+        pipeService.shutdown();
+    }
+
+    @Benchmark
+    public PipePacket call() throws Exception {
+        return client.call("bench", FUNC_NAME, params).get(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public PipePacket callConcurrent() throws Exception {
+        return client.call("bench", FUNC_NAME, params).get(10, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Object callBatch() throws Exception {
+        List<CompletableFuture<PipePacket>> futures = client.callBatch("bench", FUNC_NAME, batchParams);
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+    }
+
+}
@@ -2,6 +2,8 @@ package com.id.px3.crud.access;
 
 import com.id.px3.crud.IPxAccessControlBase;
 import com.id.px3.model.DefaultRoles;
+import com.id.px3.rest.UserContextHolder;
+import com.id.px3.rest.security.JwtPrincipal;
 import com.id.px3.rest.security.JwtService;
 import lombok.extern.slf4j.Slf4j;
 
@@ -120,6 +122,11 @@ public class PxTokenBasedAccessControl<T, K> implements IPxAccessControlBase<T,
         if (authToken == null) {
             return true;
         }
+        // Token already verified for the current request - check the roles in memory
+        JwtPrincipal principal = UserContextHolder.getPrincipal();
+        if (principal != null && authToken.equals(UserContextHolder.getAuthToken()) && !principal.isExpired()) {
+            return !principal.hasAnyRole(roles);
+        }
         try {
             // Validate the token and check for roles
             jwtService.validateTokenWithRoles(authToken, roles);
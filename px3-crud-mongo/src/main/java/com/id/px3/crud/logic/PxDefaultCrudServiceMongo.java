@@ -2,18 +2,27 @@ package com.id.px3.crud.logic;
 
 import com.id.px3.crud.IPxCrudServiceBase;
 import com.id.px3.crud.IPxMapperBase;
+import com.id.px3.crud.PxPage;
+import com.id.px3.crud.PxPageRequest;
+import com.id.px3.error.PxException;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.convert.ConversionException;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.FindAndReplaceOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -28,6 +37,7 @@ public abstract class PxDefaultCrudServiceMongo<T, E, K> implements IPxCrudServi
     private final Class<E> entityClass;
     private final String collectionName;
     private final Field idField;
+    private final Set<String> fieldNames;
     private final MongoTemplate mongoTemplate;
     private final IPxMapperBase<T, E> mapper;
 
@@ -47,6 +57,7 @@ public abstract class PxDefaultCrudServiceMongo<T, E, K> implements IPxCrudServi
                 : collectionName;
 
         this.idField = detectIdField(entityClass);
+        this.fieldNames = detectFieldNames(entityClass);
     }
 
     @Override
@@ -57,6 +68,66 @@ public abstract class PxDefaultCrudServiceMongo<T, E, K> implements IPxCrudServi
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public PxPage<T> findPage(PxPageRequest request) {
+        String idName = idField.getName();
+        Query query = new Query();
+
+        //  sort
+        List<Sort.Order> orders = new ArrayList<>();
+        for (PxPageRequest.Order order : request.getSort()) {
+            checkField(order.field());
+            orders.add(order.descending() ? Sort.Order.desc(order.field()) : Sort.Order.asc(order.field()));
+        }
+        boolean sortedById = orders.isEmpty() || (orders.size() == 1 && orders.get(0).getProperty().equals(idName));
+
+        //  position: after the cursor on the ID index (from the start when empty), or skip to the page
+        boolean keyset = request.getAfter() != null;
+        if (keyset) {
+            if (!sortedById) {
+                throw new PxException(HttpStatus.BAD_REQUEST, "Paging after a cursor requires sorting by %s only".formatted(idName));
+            }
+            if (!request.getAfter().isEmpty()) {
+                Object cursor = toId(request.getAfter());
+                boolean descending = !orders.isEmpty() && orders.get(0).isDescending();
+                query.addCriteria(descending ? where(idName).lt(cursor) : where(idName).gt(cursor));
+            }
+        } else {
+            query.skip((long) request.getPage() * request.getSize());
+        }
+
+        //  ID as the last sort key, so that pages don't overlap when other keys tie
+        if (orders.stream().noneMatch(order -> order.getProperty().equals(idName))) {
+            orders.add(Sort.Order.asc(idName));
+        }
+        query.with(Sort.by(orders)).limit(request.getSize());
+
+        //  projection, the ID is always returned
+        if (!request.getFields().isEmpty()) {
+            for (String field : request.getFields()) {
+                checkField(field);
+                query.fields().include(field);
+            }
+            query.fields().include(idName);
+        }
+
+        List<E> entities = mongoTemplate.find(query, entityClass, collectionName);
+        //  cursor of the next page only for cursor walks, offset pages are addressed by number
+        String next = null;
+        if (keyset && entities.size() == request.getSize()) {
+            next = String.valueOf(getId(entities.get(entities.size() - 1)));
+        }
+        Long total = request.isWithTotal() ? mongoTemplate.count(new Query(), entityClass, collectionName) : null;
+
+        return new PxPage<>(
+                entities.stream().map(mapper::toModel).collect(Collectors.toList()),
+                request.getPage(),
+                request.getSize(),
+                total,
+                next
+        );
+    }
+
     @Override
     public T findById(K id) {
         E entity = mongoTemplate.findById(id, entityClass, collectionName);
@@ -138,6 +209,49 @@ public abstract class PxDefaultCrudServiceMongo<T, E, K> implements IPxCrudServi
         return mapper.provideEntityClass();
     }
 
+    private void checkField(String field) {
+        //  nested paths are checked on their first segment
+        String root = field.split("\\.", 2)[0];
+        if (!fieldNames.contains(root)) {
+            throw new PxException(HttpStatus.BAD_REQUEST, "Unknown field: %s".formatted(field));
+        }
+    }
+
+    private Object toId(String value) {
+        if (idField.getType() == String.class) {
+            return value;
+        }
+        try {
+            return mongoTemplate.getConverter().getConversionService().convert(value, idField.getType());
+        } catch (ConversionException e) {
+            throw new PxException(HttpStatus.BAD_REQUEST, "Invalid cursor: %s".formatted(value));
+        }
+    }
+
+    private Object getId(E entity) {
+        try {
+            return idField.get(entity);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Failed to get id of entity", e);
+        }
+    }
+
+    /**
+     * Collects the names of the fields of the class and its superclasses, to check the fields of a query.
+     *
+     * @param clazz the entity class.
+     * @return the field names.
+     */
+    private Set<String> detectFieldNames(Class<?> clazz) {
+        Set<String> names = new HashSet<>();
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                names.add(field.getName());
+            }
+        }
+        return names;
+    }
+
     /**
      * Automatically detects the collection name from the @Document annotation.
      * If the annotation is present and its "collection" property is not empty,
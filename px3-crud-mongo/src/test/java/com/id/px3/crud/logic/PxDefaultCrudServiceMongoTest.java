@@ -0,0 +1,221 @@
+package com.id.px3.crud.logic;
+
+import com.id.px3.crud.IPxMapperBase;
+import com.id.px3.crud.PxPage;
+import com.id.px3.crud.PxPageRequest;
+import com.id.px3.error.PxException;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class PxDefaultCrudServiceMongoTest {
+
+    private static final String COLLECTION = "items";
+
+    private MongoTemplate mongoTemplate;
+    private PxDefaultCrudServiceMongo<Item, Item, String> service;
+
+    @BeforeEach
+    void setUp() {
+        mongoTemplate = mock(MongoTemplate.class);
+        service = new PxDefaultCrudServiceMongo<>(mongoTemplate, new ItemMapper(), COLLECTION) {
+            @Override
+            public List<Item> processAction(String name, Map<String, Object> params) {
+                return List.of();
+            }
+        };
+    }
+
+    private void returning(String... ids) {
+        List<Item> items = new ArrayList<>();
+        for (String id : ids) {
+            items.add(new Item(id, "name-" + id, 0));
+        }
+        when(mongoTemplate.find(any(Query.class), eq(Item.class), eq(COLLECTION))).thenReturn(items);
+    }
+
+    private Query executedQuery() {
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(query.capture(), eq(Item.class), eq(COLLECTION));
+        return query.getValue();
+    }
+
+    @Test
+    void testOffsetPageIsSkippedAndSorted() {
+        returning("a", "b");
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder()
+                .page(3)
+                .size(2)
+                .sort(PxPageRequest.Order.parse("-name,rank"))
+                .build());
+
+        Query query = executedQuery();
+        assertEquals(6, query.getSkip());
+        assertEquals(2, query.getLimit());
+        // ID added as the last key, so that ties keep a stable order
+        Document sort = query.getSortObject();
+        assertEquals(List.of("name", "rank", "id"), new ArrayList<>(sort.keySet()));
+        assertEquals(-1, sort.get("name"));
+        assertEquals(1, sort.get("rank"));
+        assertEquals(1, sort.get("id"));
+        assertEquals(List.of("a", "b"), page.getItems().stream().map(Item::getId).toList());
+        assertEquals(3, page.getPage());
+        assertNull(page.getNext(), "Offset pages should not return a cursor.");
+        assertNull(page.getTotal(), "The total should only be counted on request.");
+        verify(mongoTemplate, never()).count(any(Query.class), eq(Item.class), eq(COLLECTION));
+    }
+
+    @Test
+    void testOffsetPageSortedByIdHasNoCursor() {
+        returning("a", "b");
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder().size(2).build());
+
+        assertNull(page.getNext(), "Only a cursor walk should return a cursor, even when sorted by ID.");
+    }
+
+    @Test
+    void testKeysetFirstPage() {
+        returning("a", "b");
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder().size(2).after("").build());
+
+        Query query = executedQuery();
+        assertTrue(query.getQueryObject().isEmpty(), "An empty cursor should start from the first item.");
+        assertEquals(0, query.getSkip());
+        assertEquals("b", page.getNext());
+    }
+
+    @Test
+    void testKeysetPageStartsAfterCursor() {
+        returning("c", "d");
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder().size(2).after("b").build());
+
+        Query query = executedQuery();
+        assertEquals(new Document("id", new Document("$gt", "b")), query.getQueryObject());
+        assertEquals(0, query.getSkip());
+        assertEquals("d", page.getNext());
+    }
+
+    @Test
+    void testKeysetDescendingPage() {
+        returning("c", "b");
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder()
+                .size(2)
+                .sort(PxPageRequest.Order.parse("-id"))
+                .after("d")
+                .build());
+
+        Query query = executedQuery();
+        assertEquals(new Document("id", new Document("$lt", "d")), query.getQueryObject());
+        assertEquals(-1, query.getSortObject().get("id"));
+        assertEquals("b", page.getNext());
+    }
+
+    @Test
+    void testKeysetLastPageHasNoCursor() {
+        returning("e");
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder().size(2).after("d").build());
+
+        assertNull(page.getNext(), "The last page should not return a cursor.");
+    }
+
+    @Test
+    void testCursorRequiresSortingById() {
+        PxException e = assertThrows(PxException.class, () -> service.findPage(PxPageRequest.builder()
+                .sort(PxPageRequest.Order.parse("name"))
+                .after("b")
+                .build()));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    @Test
+    void testProjectionAlwaysIncludesId() {
+        returning("a");
+
+        service.findPage(PxPageRequest.builder().fields(List.of("name")).build());
+
+        assertEquals(new Document("name", 1).append("id", 1), executedQuery().getFieldsObject());
+    }
+
+    @Test
+    void testUnknownFieldsAreRejected() {
+        PxException sort = assertThrows(PxException.class, () -> service.findPage(PxPageRequest.builder()
+                .sort(PxPageRequest.Order.parse("secret"))
+                .build()));
+        assertEquals(HttpStatus.BAD_REQUEST, sort.getStatusCode());
+        PxException fields = assertThrows(PxException.class, () -> service.findPage(PxPageRequest.builder()
+                .fields(List.of("secret"))
+                .build()));
+        assertEquals(HttpStatus.BAD_REQUEST, fields.getStatusCode());
+    }
+
+    @Test
+    void testTotalIsCountedOnRequest() {
+        returning("a");
+        when(mongoTemplate.count(any(Query.class), eq(Item.class), eq(COLLECTION))).thenReturn(42L);
+
+        PxPage<Item> page = service.findPage(PxPageRequest.builder().withTotal(true).build());
+
+        assertEquals(42L, page.getTotal());
+    }
+
+    static class Item {
+        @Id
+        private String id;
+        private String name;
+        private int rank;
+
+        Item(String id, String name, int rank) {
+            this.id = id;
+            this.name = name;
+            this.rank = rank;
+        }
+
+        String getId() {
+            return id;
+        }
+    }
+
+    private static class ItemMapper implements IPxMapperBase<Item, Item> {
+
+        @Override
+        public Class<Item> provideModelClass() {
+            return Item.class;
+        }
+
+        @Override
+        public Class<Item> provideEntityClass() {
+            return Item.class;
+        }
+
+        @Override
+        public Item toEntity(Item model) {
+            return model;
+        }
+
+        @Override
+        public Item toModel(Item entity) {
+            return entity;
+        }
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.id.px3.pipe.codec;
+
+import com.google.gson.Gson;
+import com.id.px3.utils.json.JsonUtils;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Compact binary payload codec.
+ * Every value is written as a one byte type tag followed by its data, integers are zig-zag varints,
+ * strings, lists and maps are prefixed by their varint length.
+ * Types without a tag of their own are converted to the same shape Gson would produce.
+ * <p>
+ * Unlike Gson, numbers keep their type: integers are decoded as Integer or Long, where Gson gives a Double.
+ * Listeners casting payload numbers to Double must read them as Number before switching a topic to this codec.
+ * All the readers of a topic must also be able to read this codec, i.e. be at a version that has it.
+ */
+public class BinaryPipeCodec implements PipeCodec {
+
+    public static final byte ID = 1;
+    public static final String NAME = "binary";
+
+    protected static final byte T_NULL = 0;
+    protected static final byte T_TRUE = 1;
+    protected static final byte T_FALSE = 2;
+    protected static final byte T_INT = 3;
+    protected static final byte T_LONG = 4;
+    protected static final byte T_DOUBLE = 5;
+    protected static final byte T_STRING = 6;
+    protected static final byte T_LIST = 7;
+    protected static final byte T_MAP = 8;
+    protected static final byte T_BYTES = 9;
+    protected static final byte T_INSTANT = 10;
+    protected static final byte T_FLOAT = 11;
+    protected static final byte T_DECIMAL = 12;
+
+    private final Gson gson = JsonUtils.newGson();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Map<String, Object> payload) {
+        Output out = new Output(256);
+        writeMap(out, payload != null ? payload : Map.of());
+        return out.toByteArray();
+    }
+
+    @Override
+    public Map<String, Object> decode(ByteBuffer data) {
+        try {
+            return readMap(data.slice());
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed binary payload", e);
+        }
+    }
+
+    @Override
+    public Object decodeValue(ByteBuffer data, String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            ByteBuffer in = data.slice();
+            int size = readLength(in);
+            for (int i = 0; i < size; i++) {
+                // Compare the raw key bytes, skip the values of the other keys without decoding them
+                if (readKeyMatches(in, keyBytes)) {
+                    return readValue(in);
+                }
+                skipValue(in);
+            }
+            return null;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed binary payload", e);
+        }
+    }
+
+    private void writeValue(Output out, Object value) {
+        if (value == null) {
+            out.write(T_NULL);
+        } else if (value instanceof String s) {
+            out.write(T_STRING);
+            out.writeString(s);
+        } else if (value instanceof Boolean b) {
+            out.write(b ? T_TRUE : T_FALSE);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.write(T_INT);
+            out.writeVarLong(zigZag(((Number) value).longValue()));
+        } else if (value instanceof Long l) {
+            out.write(T_LONG);
+            out.writeVarLong(zigZag(l));
+        } else if (value instanceof Double d) {
+            out.write(T_DOUBLE);
+            out.writeLong(Double.doubleToRawLongBits(d));
+        } else if (value instanceof Float f) {
+            out.write(T_FLOAT);
+            out.writeInt(Float.floatToRawIntBits(f));
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            out.write(T_DECIMAL);
+            out.writeString(value.toString());
+        } else if (value instanceof Instant i) {
+            out.write(T_INSTANT);
+            out.writeLong(i.getEpochSecond());
+            out.writeInt(i.getNano());
+        } else if (value instanceof byte[] bytes) {
+            out.write(T_BYTES);
+            out.writeVarLong(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Map<?, ?> map) {
+            out.write(T_MAP);
+            writeMap(out, map);
+        } else if (value instanceof Collection<?> collection) {
+            out.write(T_LIST);
+            out.writeVarLong(collection.size());
+            for (Object item : collection) {
+                writeValue(out, item);
+            }
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            out.write(T_LIST);
+            out.writeVarLong(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(out, Array.get(value, i));
+            }
+        } else if (value instanceof Enum<?> e) {
+            out.write(T_STRING);
+            out.writeString(e.name());
+        } else if (value instanceof Character c) {
+            out.write(T_STRING);
+            out.writeString(c.toString());
+        } else {
+            // Beans and other types - same shape as Gson would produce
+            writeValue(out, gson.fromJson(gson.toJsonTree(value), Object.class));
+        }
+    }
+
+    private void writeMap(Output out, Map<?, ?> map) {
+        out.writeVarLong(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            out.writeString(String.valueOf(entry.getKey()));
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    protected Object readValue(ByteBuffer in) {
+        byte tag = in.get();
+        return switch (tag) {
+            case T_NULL -> null;
+            case T_TRUE -> Boolean.TRUE;
+            case T_FALSE -> Boolean.FALSE;
+            case T_INT -> (int) unZigZag(readVarLong(in));
+            case T_LONG -> unZigZag(readVarLong(in));
+            case T_DOUBLE -> Double.longBitsToDouble(in.getLong());
+            case T_FLOAT -> Float.intBitsToFloat(in.getInt());
+            case T_STRING -> readString(in);
+            case T_DECIMAL -> new BigDecimal(readString(in));
+            case T_INSTANT -> Instant.ofEpochSecond(in.getLong(), in.getInt());
+            case T_BYTES -> {
+                byte[] bytes = new byte[readLength(in)];
+                in.get(bytes);
+                yield bytes;
+            }
+            case T_MAP -> readMap(in);
+            case T_LIST -> {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                yield list;
+            }
+            default -> throw new IllegalArgumentException("Unknown value tag %d in binary payload".formatted(tag));
+        };
+    }
+
+    protected Map<String, Object> readMap(ByteBuffer in) {
+        int size = readLength(in);
+        Map<String, Object> map = new LinkedHashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, readValue(in));
+        }
+        return map;
+    }
+
+    protected static void skipValue(ByteBuffer in) {
+        byte tag = in.get();
+        switch (tag) {
+            case T_NULL, T_TRUE, T_FALSE -> {
+            }
+            case T_INT, T_LONG -> readVarLong(in);
+            case T_DOUBLE -> skip(in, 8);
+            case T_FLOAT -> skip(in, 4);
+            case T_INSTANT -> skip(in, 12);
+            case T_STRING, T_DECIMAL, T_BYTES -> skip(in, readLength(in));
+            case T_MAP -> {
+                int size = readLength(in);
+                for (int i = 0; i < size; i++) {
+                    skip(in, readLength(in));
+                    skipValue(in);
+                }
+            }
+            case T_LIST -> {
+                int size = readLength(in);
+                for (int i = 0; i < size; i++) {
+                    skipValue(in);
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown value tag %d in binary payload".formatted(tag));
+        }
+    }
+
+    private static boolean readKeyMatches(ByteBuffer in, byte[] keyBytes) {
+        int length = readLength(in);
+        int start = in.position();
+        skip(in, length);
+        if (length != keyBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.get(start + i) != keyBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void skip(ByteBuffer in, int length) {
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        in.position(in.position() + length);
+    }
+
+    protected static String readString(ByteBuffer in) {
+        int length = readLength(in);
+        if (in.hasArray()) {
+            String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+            return s;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static int readLength(ByteBuffer in) {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("Invalid length %d in binary payload".formatted(length));
+        }
+        return (int) length;
+    }
+
+    protected static long readVarLong(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary payload");
+    }
+
+    private static long zigZag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unZigZag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Growable output buffer, avoids the synchronization of ByteArrayOutputStream
+     */
+    private static final class Output {
+        private byte[] buf;
+        private int pos;
+
+        private Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + n));
+            }
+        }
+
+        private void write(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void write(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void writeInt(int v) {
+            ensure(4);
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        private void writeLong(long v) {
+            writeInt((int) (v >>> 32));
+            writeInt((int) v);
+        }
+
+        private void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            write(bytes);
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.id.px3.pipe.codec;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.id.px3.utils.json.JsonUtils;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JSON codec, kept for compatibility with the string based packets.
+ * Packets are written as legacy JSON strings (see PipePacketSerde), readable by readers of any version.
+ * Encoding single payloads is only used to read the records of the first codec versions, which wrote them with a codec header.
+ */
+public class GsonPipeCodec implements PipeCodec {
+
+    public static final byte ID = 0;
+    public static final String NAME = "gson";
+
+    private static final Type PAYLOAD_TYPE = new TypeToken<Map<String, Object>>() {
+    }.getType();
+
+    private final Gson gson = JsonUtils.newGson();
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Map<String, Object> payload) {
+        return gson.toJson(payload).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Map<String, Object> decode(ByteBuffer data) {
+        String json = StandardCharsets.UTF_8.decode(data.slice()).toString();
+        Map<String, Object> payload = gson.fromJson(json, PAYLOAD_TYPE);
+        return payload != null ? payload : new LinkedHashMap<>();
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.id.px3.pipe.codec;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Encodes and decodes the payload of a pipe packet.
+ * Each codec is identified by a single byte, written along with the packet so that readers can pick the right one.
+ */
+public interface PipeCodec {
+
+    /**
+     * Codec identifier, written in the packet headers
+     *
+     * @return codec id
+     */
+    byte id();
+
+    /**
+     * Codec name, as used in the configuration
+     *
+     * @return codec name
+     */
+    String name();
+
+    /**
+     * Encode a payload
+     *
+     * @param payload - payload to encode
+     * @return encoded payload
+     */
+    byte[] encode(Map<String, Object> payload);
+
+    /**
+     * Decode a payload. The buffer is read from its position up to its limit.
+     *
+     * @param data - encoded payload
+     * @return decoded payload
+     */
+    Map<String, Object> decode(ByteBuffer data);
+
+    /**
+     * Decode a single top level value of a payload, without materializing the rest of it.
+     * The buffer is read from its position up to its limit.
+     *
+     * @param data - encoded payload
+     * @param key - payload key
+     * @return decoded value, null if the key is missing
+     */
+    default Object decodeValue(ByteBuffer data, String key) {
+        return decode(data).get(key);
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.id.px3.pipe.codec;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the available payload codecs.
+ * Besides the built-in ones, codecs are discovered through {@link ServiceLoader} or can be registered at runtime.
+ */
+public class PipeCodecs {
+
+    private static final Map<Byte, PipeCodec> codecsById = new ConcurrentHashMap<>();
+    private static final Map<String, PipeCodec> codecsByName = new ConcurrentHashMap<>();
+
+    static {
+        register(new GsonPipeCodec());
+        register(new BinaryPipeCodec());
+        ServiceLoader.load(PipeCodec.class).forEach(PipeCodecs::register);
+    }
+
+    /**
+     * Register a codec
+     *
+     * @param codec - codec to register
+     */
+    public static synchronized void register(PipeCodec codec) {
+        PipeCodec existing = codecsById.get(codec.id());
+        if (existing != null && !existing.name().equals(codec.name())) {
+            throw new IllegalArgumentException("Codec id %d already used by codec %s".formatted(codec.id(), existing.name()));
+        }
+        codecsById.put(codec.id(), codec);
+        codecsByName.put(codec.name(), codec);
+    }
+
+    /**
+     * Get a codec by id
+     *
+     * @param id - codec id
+     * @return codec
+     */
+    public static PipeCodec forId(byte id) {
+        PipeCodec codec = codecsById.get(id);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown codec id: " + id);
+        }
+        return codec;
+    }
+
+    /**
+     * Get a codec by name
+     *
+     * @param name - codec name
+     * @return codec
+     */
+    public static PipeCodec forName(String name) {
+        PipeCodec codec = name != null ? codecsByName.get(name) : null;
+        if (codec == null) {
+            throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+        return codec;
+    }
+
+}
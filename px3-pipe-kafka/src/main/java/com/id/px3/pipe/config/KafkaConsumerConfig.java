@@ -4,6 +4,7 @@ import java.util.Properties;
 
 import lombok.Getter;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
 
 @Getter
@@ -15,9 +16,11 @@ public class KafkaConsumerConfig {
         config = new Properties();
         config.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
-        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class.getName());
+        config.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class.getName());
         config.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
         config.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest"); // Read from the start of the topic
+        // Offsets are committed by the reader once records are processed, auto commit would commit every polled record
+        config.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
     }
 
 }
@@ -1,9 +1,11 @@
 package com.id.px3.pipe.config;
 
+import java.util.Map;
 import java.util.Properties;
 
 import lombok.Getter;
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 
 @Getter
@@ -12,10 +14,23 @@ public class KafkaProducerConfig {
     private final Properties config;
 
     public KafkaProducerConfig(String bootstrapServers) {
+        this(bootstrapServers, ProducerProfile.DEFAULT, Map.of());
+    }
+
+    /**
+     * Producer configuration tuned by profile
+     *
+     * @param bootstrapServers - bootstrap servers
+     * @param profile - tuning profile
+     * @param overrides - producer settings overriding the profile ones
+     */
+    public KafkaProducerConfig(String bootstrapServers, ProducerProfile profile, Map<String, String> overrides) {
         config = new Properties();
         config.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
         config.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
-        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class.getName());
+        config.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        config.putAll(profile.getSettings());
+        config.putAll(overrides);
     }
 
 }
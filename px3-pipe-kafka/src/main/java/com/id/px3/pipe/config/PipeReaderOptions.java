@@ -0,0 +1,115 @@
+package com.id.px3.pipe.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * Options of a pipe reader, define how received packets are handed to the listener
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PipeReaderOptions {
+
+    public enum ExecutionMode {
+        /**
+         * Every packet is processed as soon as it is received, on a shared cached thread pool
+         */
+        UNBOUNDED,
+        /**
+         * Packets are processed by a bounded set of workers, the reader pauses when the queue is full
+         */
+        BOUNDED,
+        /**
+         * Packets are spread over serial lanes by ordering key: packets sharing a key are processed in order,
+         * packets with different keys in parallel. The reader pauses when the queue is full.
+         */
+        KEYED
+    }
+
+    public enum OrderingKey {
+        REQ_ID,
+        SENDER,
+        RECORD_KEY
+    }
+
+    @Builder.Default
+    private ExecutionMode mode = ExecutionMode.UNBOUNDED;
+
+    /**
+     * Number of worker threads, or of lanes in keyed mode. Ignored by the bounded mode when using virtual threads.
+     */
+    @Builder.Default
+    private int workers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Max number of packets waiting or being processed
+     */
+    @Builder.Default
+    private int queueCapacity = 1000;
+
+    /**
+     * Run each packet on a virtual thread of its own, the number of packets in flight is still bound by the queue capacity
+     */
+    @Builder.Default
+    private boolean virtualThreads = false;
+
+    /**
+     * Key used to order packets in keyed mode, records without it fall back to the record key, then to the partition
+     */
+    @Builder.Default
+    private OrderingKey orderingKey = OrderingKey.REQ_ID;
+
+    /**
+     * Fraction of the queue capacity that must be free again before a paused reader resumes
+     */
+    @Builder.Default
+    private double resumeThreshold = 0.5;
+
+    /**
+     * Consumer group shared with other readers. Readers of the same group are served by a single consumer,
+     * which subscribes to all their topics. When null the reader gets a consumer of its own.
+     * The commit settings of the shared consumer are taken from the first reader of the group.
+     */
+    @Builder.Default
+    private String group = null;
+
+    /**
+     * Max time between offset commits
+     */
+    @Builder.Default
+    private Duration commitInterval = Duration.ofSeconds(1);
+
+    /**
+     * Number of processed records that triggers an offset commit before the interval is over
+     */
+    @Builder.Default
+    private int commitBatchSize = 500;
+
+    public static PipeReaderOptions defaults() {
+        return PipeReaderOptions.builder().build();
+    }
+
+    public static PipeReaderOptions keyed(int lanes, int queueCapacity, OrderingKey orderingKey) {
+        return PipeReaderOptions.builder()
+                .mode(ExecutionMode.KEYED)
+                .workers(lanes)
+                .queueCapacity(queueCapacity)
+                .orderingKey(orderingKey)
+                .build();
+    }
+
+    public static PipeReaderOptions bounded(int workers, int queueCapacity) {
+        return PipeReaderOptions.builder()
+                .mode(ExecutionMode.BOUNDED)
+                .workers(workers)
+                .queueCapacity(queueCapacity)
+                .build();
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.id.px3.pipe.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Duration;
+
+/**
+ * Options of a served RPC function, define how many calls run at once and for how long
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class PipeServeOptions {
+
+    /**
+     * Max number of calls running at once, 0 for no limit
+     */
+    @Builder.Default
+    private int maxConcurrency = 0;
+
+    /**
+     * Max number of calls waiting for a free slot, the function reader pauses when they are exceeded
+     */
+    @Builder.Default
+    private int queueDepth = 1000;
+
+    /**
+     * Max time a call may run, an error is sent back to the caller when it is exceeded. Null for no limit.
+     */
+    @Builder.Default
+    private Duration timeout = null;
+
+    /**
+     * Run each call on a virtual thread of its own, suited to handlers blocking on I/O
+     */
+    @Builder.Default
+    private boolean virtualThreads = false;
+
+    public static PipeServeOptions defaults() {
+        return PipeServeOptions.builder().build();
+    }
+
+    public static PipeServeOptions bounded(int maxConcurrency, int queueDepth, Duration timeout) {
+        return PipeServeOptions.builder()
+                .maxConcurrency(maxConcurrency)
+                .queueDepth(queueDepth)
+                .timeout(timeout)
+                .build();
+    }
+
+    /**
+     * Set up the reader options of the function topic
+     *
+     * @param readerOptions - reader options to set up
+     * @return the reader options
+     */
+    public PipeReaderOptions applyTo(PipeReaderOptions readerOptions) {
+        if (maxConcurrency <= 0 && !virtualThreads) {
+            return readerOptions;
+        }
+        // Platform workers run the calls, virtual threads are limited by the server instead
+        readerOptions.setMode(PipeReaderOptions.ExecutionMode.BOUNDED);
+        readerOptions.setWorkers(Math.max(maxConcurrency, 1));
+        readerOptions.setQueueCapacity(Math.max(maxConcurrency, 0) + queueDepth);
+        readerOptions.setVirtualThreads(virtualThreads);
+        return readerOptions;
+    }
+
+}
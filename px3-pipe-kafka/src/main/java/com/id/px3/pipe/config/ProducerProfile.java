@@ -0,0 +1,72 @@
+package com.id.px3.pipe.config;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Named producer tuning profiles
+ */
+public enum ProducerProfile {
+
+    /**
+     * Kafka client defaults
+     */
+    DEFAULT("default", Map.of()),
+
+    /**
+     * Send right away, leader ack only
+     */
+    LOW_LATENCY("low-latency", Map.of(
+            ProducerConfig.LINGER_MS_CONFIG, "0",
+            ProducerConfig.BATCH_SIZE_CONFIG, "16384",
+            ProducerConfig.COMPRESSION_TYPE_CONFIG, "none",
+            ProducerConfig.ACKS_CONFIG, "1",
+            ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "false")),
+
+    /**
+     * Large compressed batches, leader ack only
+     */
+    THROUGHPUT("throughput", Map.of(
+            ProducerConfig.LINGER_MS_CONFIG, "20",
+            ProducerConfig.BATCH_SIZE_CONFIG, "262144",
+            ProducerConfig.COMPRESSION_TYPE_CONFIG, "lz4",
+            ProducerConfig.ACKS_CONFIG, "1",
+            ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "false")),
+
+    /**
+     * All replicas ack, idempotent writes, no duplicates or reordering on retries
+     */
+    DURABLE("durable", Map.of(
+            ProducerConfig.LINGER_MS_CONFIG, "5",
+            ProducerConfig.BATCH_SIZE_CONFIG, "65536",
+            ProducerConfig.COMPRESSION_TYPE_CONFIG, "zstd",
+            ProducerConfig.ACKS_CONFIG, "all",
+            ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, "true",
+            ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "5"));
+
+    private final String profileName;
+    private final Map<String, String> settings;
+
+    ProducerProfile(String profileName, Map<String, String> settings) {
+        this.profileName = profileName;
+        this.settings = settings;
+    }
+
+    public String getProfileName() {
+        return profileName;
+    }
+
+    public Map<String, String> getSettings() {
+        return settings;
+    }
+
+    public static ProducerProfile fromName(String name) {
+        return Arrays.stream(values())
+                .filter(p -> p.profileName.equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown producer profile: " + name));
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.config.PipeReaderOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Processes records on a fixed pool of workers, or on virtual threads, with a bounded number of records in flight.
+ * When the bound is reached records are refused, so that the reader can pause.
+ */
+@Slf4j
+public class BoundedRecordDispatcher implements RecordDispatcher {
+
+    private final ExecutorService executorService;
+    private final Consumer<ConsumerRecord<String, byte[]>> handler;
+    private final Semaphore slots;
+    private final int capacity;
+    private final int resumeSlots;
+
+    public BoundedRecordDispatcher(String name, PipeReaderOptions options, Consumer<ConsumerRecord<String, byte[]>> handler) {
+        if (options.getQueueCapacity() <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be a positive number");
+        }
+        if (!options.isVirtualThreads() && options.getWorkers() <= 0) {
+            throw new IllegalArgumentException("Workers must be a positive number");
+        }
+
+        this.handler = handler;
+        this.slots = new Semaphore(options.getQueueCapacity());
+        this.capacity = options.getQueueCapacity();
+        this.resumeSlots = Math.max(1, (int) Math.ceil(options.getQueueCapacity() * options.getResumeThreshold()));
+        this.executorService = options.isVirtualThreads()
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory())
+                : Executors.newFixedThreadPool(options.getWorkers(), Thread.ofPlatform().name(name + "-", 0).factory());
+    }
+
+    @Override
+    public boolean dispatch(ConsumerRecord<String, byte[]> record, Runnable onComplete) {
+        if (!slots.tryAcquire()) {
+            return false;
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    handler.accept(record);
+                } finally {
+                    onComplete.run();
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean canResume() {
+        return slots.availablePermits() >= resumeSlots;
+    }
+
+    @Override
+    public int getPending() {
+        return capacity - slots.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdown();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.config.KafkaProducerConfig;
+import com.id.px3.pipe.config.ProducerProfile;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Producers shared by all the topic writers, one for each tuning profile.
+ * Kafka producers are thread safe and can write to any topic, so sharing them keeps batches, buffers and connections warm.
+ */
+@Slf4j
+public class KafkaProducerPool {
+
+    private final ConcurrentMap<ProducerProfile, Producer<String, byte[]>> producers = new ConcurrentHashMap<>();
+    private final String bootstrapServers;
+    private final Map<String, String> overrides;
+
+    public KafkaProducerPool(String bootstrapServers, Map<String, String> overrides) {
+        this.bootstrapServers = bootstrapServers;
+        this.overrides = overrides;
+    }
+
+    /**
+     * Get the producer of a profile, created on first use
+     *
+     * @param profile - tuning profile
+     * @return shared producer
+     */
+    public Producer<String, byte[]> get(ProducerProfile profile) {
+        return producers.computeIfAbsent(profile, p -> {
+            log.debug("Creating new producer for profile: %s".formatted(p.getProfileName()));
+            return new KafkaProducer<>(new KafkaProducerConfig(bootstrapServers, p, overrides).getConfig());
+        });
+    }
+
+    /**
+     * Send the buffered messages of all the producers right away and wait for their completion
+     */
+    public void flush() {
+        producers.values().forEach(Producer::flush);
+    }
+
+    public void close() {
+        producers.values().forEach(producer -> {
+            try {
+                producer.close();
+            } catch (Exception e) {
+                log.error("Error closing producer: %s".formatted(e.getMessage()), e);
+            }
+        });
+        producers.clear();
+    }
+
+}
@@ -1,46 +1,276 @@
 package com.id.px3.pipe.logic;
 
 import com.id.px3.pipe.config.KafkaConsumerConfig;
+import com.id.px3.pipe.config.PipeReaderOptions;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
 
 import java.time.Duration;
-import java.util.Collections;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.Consumer;
 
+/**
+ * Reads one or more topics with a single consumer and hands the records over to the dispatcher of their topic.
+ * Topics can be added and removed while the reader is running.
+ * Offsets are committed only up to the records actually processed (at-least-once), in batches.
+ */
 @Slf4j
 public class KafkaTopicReader {
 
-    private final KafkaConsumer<String, String> consumer;
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+    private static final Duration PAUSED_POLL_TIMEOUT = Duration.ofMillis(10);
+
+    private final KafkaConsumer<String, byte[]> consumer;
     private final ExecutorService executorService;
+    private final ConcurrentMap<String, RecordDispatcher> dispatchers = new ConcurrentHashMap<>();
+    private final OffsetTracker offsetTracker = new OffsetTracker();
+    private final String groupId;
+    private final long commitIntervalMs;
+    private final int commitBatchSize;
+    private volatile boolean subscriptionChanged;
+    private volatile boolean closed;
+
+    // Only used by the polling thread
+    private final Map<String, Deque<ConsumerRecord<String, byte[]>>> backlogs = new HashMap<>();
+    private final Set<String> pausedTopics = new HashSet<>();
+    private long lastCommitMs = System.currentTimeMillis();
+
+    public KafkaTopicReader(String bootstrapServers, String groupId, String topic, PipeReaderOptions options, RecordDispatcher dispatcher) {
+        this(bootstrapServers, groupId, options);
+        addTopic(topic, dispatcher);
+    }
 
-    public KafkaTopicReader(String bootstrapServers, String groupId, String topic, Consumer<ConsumerRecord<String, String>> listener) {
+    public KafkaTopicReader(String bootstrapServers, String groupId, PipeReaderOptions options) {
         KafkaConsumerConfig consumerConfig = new KafkaConsumerConfig(bootstrapServers, groupId);
         this.consumer = new KafkaConsumer<>(consumerConfig.getConfig());
-        this.consumer.subscribe(Collections.singletonList(topic));
         this.executorService = Executors.newSingleThreadExecutor();
+        this.groupId = groupId;
+        this.commitIntervalMs = options.getCommitInterval().toMillis();
+        this.commitBatchSize = options.getCommitBatchSize();
 
         executorService.submit(() -> {
             try {
-                while (!Thread.currentThread().isInterrupted()) {
-                    consumer.poll(Duration.ofMillis(100)).forEach(listener);
-                    consumer.commitAsync();
+                while (!closed && !Thread.currentThread().isInterrupted()) {
+                    if (subscriptionChanged) {
+                        updateSubscription();
+                    }
+                    if (consumer.subscription().isEmpty()) {
+                        // Nothing to read yet
+                        Thread.sleep(POLL_TIMEOUT.toMillis());
+                        continue;
+                    }
+
+                    Duration pollTimeout = pausedTopics.isEmpty() ? POLL_TIMEOUT : PAUSED_POLL_TIMEOUT;
+                    for (ConsumerRecord<String, byte[]> record : consumer.poll(pollTimeout)) {
+                        backlogs.computeIfAbsent(record.topic(), k -> new ArrayDeque<>()).add(record);
+                    }
+                    backlogs.forEach(this::drainBacklog);
+
+                    // Commit processed records in batches, by count or by time
+                    long now = System.currentTimeMillis();
+                    if (offsetTracker.getCompletedSinceCommit() >= commitBatchSize || now - lastCommitMs >= commitIntervalMs) {
+                        commitAsync(offsetTracker.committable());
+                        lastCommitMs = now;
+                    }
                 }
+            } catch (WakeupException | InterruptedException e) {
+                // Reader closed
             } catch (Exception e) {
                 log.error("Error in consuming messages: %s".formatted(e.getMessage()), e);
             } finally {
+                commitSync(offsetTracker.committable());
                 consumer.close();
             }
         });
     }
 
+    /**
+     * Start reading a topic
+     *
+     * @param topic - topic to read
+     * @param dispatcher - dispatcher of the topic records
+     */
+    public void addTopic(String topic, RecordDispatcher dispatcher) {
+        if (dispatchers.putIfAbsent(topic, dispatcher) != null) {
+            throw new IllegalStateException("Topic %s is already read by group %s".formatted(topic, groupId));
+        }
+        subscriptionChanged = true;
+    }
+
+    /**
+     * Stop reading a topic. Records of the topic not yet dispatched are dropped, they will be read again by the group.
+     *
+     * @param topic - topic to stop reading
+     */
+    public void removeTopic(String topic) {
+        RecordDispatcher dispatcher = dispatchers.remove(topic);
+        if (dispatcher != null) {
+            subscriptionChanged = true;
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Get the max records lag of the consumer over the last fetches
+     *
+     * @return records lag, NaN before the first fetch
+     */
+    public double getRecordsLagMax() {
+        // Read from the client metrics, no call to the broker
+        for (Map.Entry<MetricName, ? extends Metric> entry : consumer.metrics().entrySet()) {
+            MetricName name = entry.getKey();
+            if ("records-lag-max".equals(name.name()) && "consumer-fetch-manager-metrics".equals(name.group())
+                    && !name.tags().containsKey("topic")) {
+                return entry.getValue().metricValue() instanceof Number lag ? lag.doubleValue() : Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Get the topics being read
+     *
+     * @return topics
+     */
+    public Set<String> getTopics() {
+        return Set.copyOf(dispatchers.keySet());
+    }
+
+    private void updateSubscription() {
+        subscriptionChanged = false;
+        Set<String> topics = Set.copyOf(dispatchers.keySet());
+        log.debug("Updating subscription of group %s to %s".formatted(groupId, topics));
+        if (topics.isEmpty()) {
+            consumer.unsubscribe();
+        } else {
+            consumer.subscribe(topics, new CommitOnRebalance());
+        }
+        backlogs.keySet().retainAll(topics);
+        pausedTopics.retainAll(topics);
+    }
+
+    private void drainBacklog(String topic, Deque<ConsumerRecord<String, byte[]>> backlog) {
+        RecordDispatcher dispatcher = dispatchers.get(topic);
+        if (dispatcher == null) {
+            // Topic removed
+            backlog.clear();
+            return;
+        }
+
+        // Hand over as many records as the dispatcher accepts
+        while (!backlog.isEmpty() && dispatch(topic, dispatcher, backlog.peekFirst())) {
+            backlog.pollFirst();
+        }
+
+        if (!backlog.isEmpty()) {
+            // Dispatcher is full - stop fetching the topic, keep polling to stay in the group.
+            // Pause the whole topic assignment every time, as a rebalance may have added partitions.
+            if (pausedTopics.add(topic)) {
+                log.debug("Pausing topic %s, %d records waiting".formatted(topic, backlog.size()));
+            }
+            consumer.pause(partitionsOf(topic, consumer.assignment()));
+        } else if (pausedTopics.contains(topic) && dispatcher.canResume()) {
+            log.debug("Resuming topic %s".formatted(topic));
+            consumer.resume(partitionsOf(topic, consumer.paused()));
+            pausedTopics.remove(topic);
+        }
+    }
+
+    private boolean dispatch(String topic, RecordDispatcher dispatcher, ConsumerRecord<String, byte[]> record) {
+        Runnable onComplete = offsetTracker.track(record);
+        boolean accepted = false;
+        try {
+            accepted = dispatcher.dispatch(record, onComplete);
+            return accepted;
+        } catch (RuntimeException e) {
+            if (dispatchers.get(topic) != dispatcher) {
+                // Topic removed while dispatching - drop the record
+                return false;
+            }
+            throw e;
+        } finally {
+            if (!accepted) {
+                offsetTracker.untrack(record);
+            }
+        }
+    }
+
+    private static List<TopicPartition> partitionsOf(String topic, Collection<TopicPartition> partitions) {
+        return partitions.stream().filter(p -> p.topic().equals(topic)).toList();
+    }
+
+    private void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (!offsets.isEmpty()) {
+            consumer.commitAsync(offsets, (committed, exception) -> {
+                if (exception != null) {
+                    log.warn("Error committing offsets for group %s: %s".formatted(groupId, exception.getMessage()));
+                }
+            });
+        }
+    }
+
+    private void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (!offsets.isEmpty()) {
+            try {
+                consumer.commitSync(offsets);
+            } catch (Exception e) {
+                log.warn("Error committing offsets for group %s: %s".formatted(groupId, e.getMessage()));
+            }
+        }
+    }
+
     public void close() {
+        closed = true;
         executorService.shutdown();
 
         // This will cause consumer.poll() to throw WakeupException
         consumer.wakeup();
+        dispatchers.values().forEach(RecordDispatcher::close);
+    }
+
+    private void dropBacklog(Collection<TopicPartition> partitions) {
+        backlogs.values().forEach(backlog ->
+                backlog.removeIf(r -> partitions.contains(new TopicPartition(r.topic(), r.partition()))));
+    }
+
+    /**
+     * Flushes the processed offsets of revoked partitions before they move to another consumer.
+     * Records of those partitions still in flight or waiting will be delivered again to the new owner.
+     */
+    private class CommitOnRebalance implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            log.debug("Partitions revoked for group %s: %s".formatted(groupId, partitions));
+            commitSync(offsetTracker.committable(partitions));
+            offsetTracker.remove(partitions);
+            dropBacklog(partitions);
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            // Not owned anymore - nothing can be committed
+            log.debug("Partitions lost for group %s: %s".formatted(groupId, partitions));
+            offsetTracker.remove(partitions);
+            dropBacklog(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            log.debug("Partitions assigned for group %s: %s".formatted(groupId, partitions));
+        }
     }
 }
@@ -1,36 +1,64 @@
 package com.id.px3.pipe.logic;
 
-import com.id.px3.pipe.config.KafkaProducerConfig;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.header.Header;
 
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes to a topic through a shared producer
+ */
 @Slf4j
 public class KafkaTopicWriter {
 
-    private final Producer<String, String> producer;
+    private final Producer<String, byte[]> producer;
     private final String topic;
+    private volatile long lastUsedMs = System.currentTimeMillis();
 
-    public KafkaTopicWriter(String bootstrapServers, String topic) {
-        KafkaProducerConfig producerConfig = new KafkaProducerConfig(bootstrapServers);
-        this.producer = new KafkaProducer<>(producerConfig.getConfig());
+    public KafkaTopicWriter(Producer<String, byte[]> producer, String topic) {
+        this.producer = producer;
         this.topic = topic;
     }
 
-    public void write(String message) {
-        ProducerRecord<String, String> record = new ProducerRecord<>(topic, message);
+    /**
+     * Append a message to the producer buffer
+     *
+     * @param message - message body
+     * @param headers - message headers
+     * @return future completed when the broker acknowledges the message
+     */
+    public CompletableFuture<RecordMetadata> write(byte[] message, Iterable<Header> headers) {
+        lastUsedMs = System.currentTimeMillis();
+        CompletableFuture<RecordMetadata> future = new CompletableFuture<>();
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, null, null, null, message, headers);
         producer.send(record, (metadata, exception) -> {
             if (exception != null) {
                 log.error("Error sending message to Kafka: %s".formatted(exception.getMessage()), exception);
+                future.completeExceptionally(exception);
             } else {
                 log.debug("Message sent to topic %s partition %d at offset %d".formatted(metadata.topic(), metadata.partition(), metadata.offset()));
+                future.complete(metadata);
             }
         });
-        int i = 1;
+        return future;
+    }
+
+    /**
+     * Send the buffered messages right away and wait for their completion
+     */
+    public void flush() {
+        producer.flush();
     }
 
-    public void close() {
-        producer.close();
+    /**
+     * Get the last time the writer was used
+     *
+     * @return epoch millis
+     */
+    public long getLastUsedMs() {
+        return lastUsedMs;
     }
 }
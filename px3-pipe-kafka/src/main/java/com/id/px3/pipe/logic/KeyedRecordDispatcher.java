@@ -0,0 +1,109 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.config.PipeReaderOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+
+/**
+ * Spreads records over serial lanes by ordering key. Records sharing a key are processed in order,
+ * records with different keys in parallel.
+ */
+@Slf4j
+public class KeyedRecordDispatcher implements RecordDispatcher {
+
+    private final ExecutorService[] lanes;
+    private final Consumer<ConsumerRecord<String, byte[]>> handler;
+    private final PipeReaderOptions.OrderingKey orderingKey;
+    private final Semaphore slots;
+    private final int capacity;
+    private final int resumeSlots;
+
+    public KeyedRecordDispatcher(String name, PipeReaderOptions options, Consumer<ConsumerRecord<String, byte[]>> handler) {
+        if (options.getQueueCapacity() <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be a positive number");
+        }
+        if (options.getWorkers() <= 0) {
+            throw new IllegalArgumentException("Lanes must be a positive number");
+        }
+
+        this.handler = handler;
+        this.orderingKey = options.getOrderingKey();
+        this.slots = new Semaphore(options.getQueueCapacity());
+        this.capacity = options.getQueueCapacity();
+        this.resumeSlots = Math.max(1, (int) Math.ceil(options.getQueueCapacity() * options.getResumeThreshold()));
+        this.lanes = new ExecutorService[options.getWorkers()];
+        for (int i = 0; i < lanes.length; i++) {
+            String laneName = "%s-lane-%d".formatted(name, i);
+            ThreadFactory threadFactory = options.isVirtualThreads()
+                    ? Thread.ofVirtual().name(laneName).factory()
+                    : Thread.ofPlatform().name(laneName).factory();
+            lanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+    }
+
+    @Override
+    public boolean dispatch(ConsumerRecord<String, byte[]> record, Runnable onComplete) {
+        if (!slots.tryAcquire()) {
+            return false;
+        }
+        try {
+            lanes[Math.floorMod(keyHash(record), lanes.length)].execute(() -> {
+                try {
+                    handler.accept(record);
+                } finally {
+                    onComplete.run();
+                    slots.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            slots.release();
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean canResume() {
+        return slots.availablePermits() >= resumeSlots;
+    }
+
+    @Override
+    public int getPending() {
+        return capacity - slots.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    private int keyHash(ConsumerRecord<String, byte[]> record) {
+        // Hash the raw header bytes, no need to decode the packet
+        String headerKey = switch (orderingKey) {
+            case REQ_ID -> PipePacketSerde.HEADER_REQ_ID;
+            case SENDER -> PipePacketSerde.HEADER_SNDR;
+            case RECORD_KEY -> null;
+        };
+        if (headerKey != null) {
+            Header header = record.headers().lastHeader(headerKey);
+            if (header != null && header.value() != null) {
+                return Arrays.hashCode(header.value());
+            }
+        }
+        if (record.key() != null) {
+            return record.key().hashCode();
+        }
+        return record.partition();
+    }
+
+}
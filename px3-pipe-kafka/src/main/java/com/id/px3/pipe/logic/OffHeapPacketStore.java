@@ -0,0 +1,259 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.codec.PipeCodec;
+import com.id.px3.pipe.codec.PipeCodecs;
+import com.id.px3.pipe.model.LazyPipePacket;
+import com.id.px3.pipe.model.PipePacket;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stores serialized packets in direct memory slabs, outside of the Java heap.
+ * Slabs are filled in order and recycled as soon as all their packets are freed,
+ * which fits the oldest-first eviction of the input buffer.
+ * Received packets are stored with the bytes they were received with, without decoding them.
+ * <p>
+ * Reads take no lock: a slot is copied and then validated against the generation of its slab, which changes
+ * when the slab is recycled, as with an optimistic read of a StampedLock. Only a recycle invalidates a read,
+ * and a slab is recycled once all its packets are freed, so a failed validation means the packet is gone.
+ * Writes and frees share a single lock: they only move a position or a counter and copy one packet,
+ * and the buffer is filled by the consumer thread of its reader, so the lock is rarely contended.
+ * Per-slab allocation would save little and make recycling racy. See the contended group of PipeInputBufferBenchmark.
+ */
+public class OffHeapPacketStore {
+
+    private static final int MAX_FREE_SLABS = 2;
+    // Epoch seconds of a packet without deadline
+    private static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    private final int slabSize;
+    private final PipeCodec codec = PipeCodecs.forName("binary");
+    private final Deque<Slab> freeSlabs = new ArrayDeque<>();
+    // Guards allocation and freeing, reads are lock free
+    private final ReentrantLock lock = new ReentrantLock();
+    private Slab current;
+    private volatile long allocatedBytes;
+
+    public OffHeapPacketStore(int slabSize) {
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("Slab size must be a positive number");
+        }
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Serialize a packet into the store.
+     * Packet ID, request ID and timestamp are not stored, they are given back when the packet is read.
+     * The deadline is stored with the packet.
+     *
+     * @param packet - packet to store
+     * @return slot of the stored packet
+     */
+    public Slot write(PipePacket packet) {
+        // Keep the received bytes, encode the others
+        PipeCodec packetCodec = codec;
+        ByteBuffer payload = null;
+        if (packet instanceof LazyPipePacket lazyPacket) {
+            payload = lazyPacket.getEncodedBody();
+            packetCodec = lazyPacket.getCodec();
+        }
+        if (payload == null) {
+            packetCodec = codec;
+            payload = ByteBuffer.wrap(codec.encode(packet.getPayload()));
+        }
+
+        byte[] func = bytesOf(packet.getFunc());
+        byte[] sndr = bytesOf(packet.getSndr());
+        byte[] rcpt = bytesOf(packet.getRcpt());
+        Instant dl = packet.getDl();
+        int length = 1 + lengthOf(func) + lengthOf(sndr) + lengthOf(rcpt) + Long.BYTES + Integer.BYTES + payload.remaining();
+
+        lock.lock();
+        try {
+            Slab slab = slabFor(length);
+            int offset = slab.position;
+            ByteBuffer out = slab.buffer.duplicate().position(offset);
+            out.put(packetCodec.id());
+            putBytes(out, func);
+            putBytes(out, sndr);
+            putBytes(out, rcpt);
+            out.putLong(dl != null ? dl.getEpochSecond() : NO_DEADLINE);
+            out.putInt(dl != null ? dl.getNano() : 0);
+            out.put(payload);
+            slab.position += length;
+            slab.live++;
+            return new Slot(slab, slab.generation, offset, length);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read a packet from the store. The payload is decoded on first access.
+     *
+     * @param slot - slot of the packet
+     * @param packId - packet ID
+     * @param reqId - request ID
+     * @param ts - packet timestamp
+     * @return packet, null if the slot has been freed
+     */
+    public PipePacket read(Slot slot, String packId, String reqId, Instant ts) {
+        if (slot.freed || slot.slab.generation != slot.generation) {
+            return null;
+        }
+        byte[] data = new byte[slot.length];
+        // Absolute get, the buffer position is not shared with the writers
+        slot.slab.buffer.get(slot.offset, data);
+        // Copy done before validating, the slab must not have been recycled and overwritten meanwhile
+        VarHandle.loadLoadFence();
+        if (slot.slab.generation != slot.generation) {
+            return null;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        PipeCodec packetCodec = PipeCodecs.forId(in.get());
+        String func = getString(in);
+        String sndr = getString(in);
+        String rcpt = getString(in);
+        long dlSeconds = in.getLong();
+        int dlNanos = in.getInt();
+        LazyPipePacket packet = new LazyPipePacket(packId, reqId, func, ts, sndr, rcpt, packetCodec, in.slice());
+        // Expired packets must still be dropped once read back
+        packet.setDl(dlSeconds != NO_DEADLINE ? Instant.ofEpochSecond(dlSeconds, dlNanos) : null);
+        return packet;
+    }
+
+    /**
+     * Free the slot of a packet
+     *
+     * @param slot - slot to free
+     */
+    public void free(Slot slot) {
+        lock.lock();
+        try {
+            if (slot.freed) {
+                return;
+            }
+            slot.freed = true;
+            Slab slab = slot.slab;
+            if (--slab.live == 0 && slab != current) {
+                recycle(slab);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the direct memory held by the slabs in use and ready for reuse
+     *
+     * @return allocated bytes
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private Slab slabFor(int length) {
+        if (current != null && current.buffer.capacity() - current.position >= length) {
+            return current;
+        }
+
+        // Current slab is full - move on to a new one
+        Slab previous = current;
+        if (length > slabSize) {
+            // Oversized packet gets a slab of its own
+            current = allocate(length);
+        } else {
+            current = freeSlabs.isEmpty() ? allocate(slabSize) : freeSlabs.pollFirst();
+        }
+        if (previous != null && previous.live == 0) {
+            recycle(previous);
+        }
+        return current;
+    }
+
+    private Slab allocate(int capacity) {
+        allocatedBytes += capacity;
+        return new Slab(ByteBuffer.allocateDirect(capacity));
+    }
+
+    private void recycle(Slab slab) {
+        // Invalidates the reads in progress on the slab
+        slab.generation++;
+        if (slab.buffer.capacity() == slabSize && freeSlabs.size() < MAX_FREE_SLABS) {
+            slab.position = 0;
+            freeSlabs.addLast(slab);
+        } else {
+            // Released to the garbage collector
+            allocatedBytes -= slab.buffer.capacity();
+        }
+    }
+
+    private static byte[] bytesOf(String str) {
+        return str != null ? str.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return Integer.BYTES + (bytes != null ? bytes.length : 0);
+    }
+
+    private static void putBytes(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length);
+            out.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String str = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return str;
+    }
+
+    private static final class Slab {
+        private final ByteBuffer buffer;
+        private int position;
+        private int live;
+        // Changed on recycle, under the lock
+        private volatile int generation;
+
+        private Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Location of a stored packet
+     */
+    public static final class Slot {
+        private final Slab slab;
+        private final int generation;
+        private final int offset;
+        private final int length;
+        private volatile boolean freed;
+
+        private Slot(Slab slab, int generation, int offset, int length) {
+            this.slab = slab;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.id.px3.pipe.logic;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the records in flight for each partition, to commit offsets only up to the lowest record not yet processed.
+ * Records are tracked by the polling thread and completed by any thread.
+ */
+public class OffsetTracker {
+
+    private final ConcurrentMap<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+    private final AtomicInteger completedSinceCommit = new AtomicInteger();
+
+    /**
+     * Track a record that is about to be handed over for processing
+     *
+     * @param record - record
+     * @return callback to run once the record is processed
+     */
+    public Runnable track(ConsumerRecord<?, ?> record) {
+        PartitionOffsets offsets = partitions.computeIfAbsent(
+                new TopicPartition(record.topic(), record.partition()), k -> new PartitionOffsets());
+        long offset = record.offset();
+        offsets.inFlight.add(offset);
+        offsets.nextOffset = Math.max(offsets.nextOffset, offset + 1);
+
+        // Bound to this partition state, completions arriving after a revoke are ignored
+        return () -> {
+            if (offsets.inFlight.remove(offset)) {
+                completedSinceCommit.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Forget a tracked record that was not handed over after all.
+     * Must be the first tracked record of its partition not yet handed over.
+     *
+     * @param record - record
+     */
+    public void untrack(ConsumerRecord<?, ?> record) {
+        PartitionOffsets offsets = partitions.get(new TopicPartition(record.topic(), record.partition()));
+        if (offsets != null) {
+            offsets.inFlight.remove(record.offset());
+            offsets.nextOffset = record.offset();
+        }
+    }
+
+    /**
+     * Get the number of records processed since offsets were last returned
+     *
+     * @return completed records count
+     */
+    public int getCompletedSinceCommit() {
+        return completedSinceCommit.get();
+    }
+
+    /**
+     * Get the offsets that can be committed and were not returned yet.
+     * Must be called by the polling thread.
+     *
+     * @return offsets to commit, by partition
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committable() {
+        return committable(partitions.keySet());
+    }
+
+    /**
+     * Get the offsets of the given partitions that can be committed and were not returned yet.
+     * Must be called by the polling thread.
+     *
+     * @param partitionsToCommit - partitions
+     * @return offsets to commit, by partition
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committable(Collection<TopicPartition> partitionsToCommit) {
+        completedSinceCommit.set(0);
+        Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+        for (TopicPartition partition : partitionsToCommit) {
+            PartitionOffsets offsets = partitions.get(partition);
+            if (offsets == null) {
+                continue;
+            }
+            // Everything below the lowest offset in flight is done
+            Long lowestInFlight = offsets.inFlight.ceiling(0L);
+            long safeOffset = lowestInFlight != null ? lowestInFlight : offsets.nextOffset;
+            if (safeOffset > offsets.committed) {
+                offsets.committed = safeOffset;
+                result.put(partition, new OffsetAndMetadata(safeOffset));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stop tracking partitions, i.e. after they have been revoked
+     *
+     * @param revoked - partitions
+     */
+    public void remove(Collection<TopicPartition> revoked) {
+        revoked.forEach(partitions::remove);
+    }
+
+    private static class PartitionOffsets {
+        private final ConcurrentSkipListSet<Long> inFlight = new ConcurrentSkipListSet<>();
+        // Only written by the polling thread
+        private volatile long nextOffset = -1;
+        private long committed = -1;
+    }
+
+}
@@ -1,27 +1,63 @@
 package com.id.px3.pipe.logic;
 
+import com.id.px3.pipe.model.LazyPipePacket;
 import com.id.px3.pipe.model.PipePacket;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Pipe input buffer
+ * Pipe input buffer.
+ * The total size is kept as a running count, so pushing a packet costs the same whatever the buffer size.
+ * Lookups and removals are lock-free. The eviction index is owned by a single evicting thread at a time:
+ * pushed packets are queued and indexed by whoever holds the eviction lock.
+ * Packets are evicted in arrival order, so packets sharing a timestamp are all tracked.
+ * A packet arriving with an older timestamp than the ones before it expires after them.
+ * In off-heap mode packets are kept serialized in direct memory and decoded only when they are read,
+ * the heap holds just the index.
  */
 public class PipeInputBuffer {
 
+    private static final int MAX_SLAB_SIZE = 4 * 1024 * 1024;
+
     private final Duration ageLimit;
     private final long sizeLimitMb;
-    private final Map<String, PipePacket> packets = new LinkedHashMap<>();
-    private final Map<String, String> reqIdIndex = new HashMap<>();
-    private final TreeMap<Instant, String> tsIndex = new TreeMap<>();
-    private final Map<String, Long> packetSize = new HashMap<>();
+    private final ConcurrentMap<String, Entry> packets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> reqIdIndex = new ConcurrentHashMap<>();
+    private final AtomicLong totalSize = new AtomicLong();
+    private final LongAdder evictions = new LongAdder();
+    private final OffHeapPacketStore offHeapStore;
+
+    // Packets pushed but not yet in the arrival index
+    private final Queue<Entry> pending = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // Arrival order of the packets, only used by the thread holding the eviction lock
+    private final Deque<Entry> arrivals = new ArrayDeque<>();
 
     public PipeInputBuffer(Duration ageLimit, long sizeLimitMb) {
+        this(ageLimit, sizeLimitMb, false);
+    }
+
+    /**
+     * Input buffer, optionally keeping the packets off-heap
+     *
+     * @param ageLimit - packets older than this are evicted
+     * @param sizeLimitMb - oldest packets are evicted above this size
+     * @param offHeap - keep the packets serialized in direct memory
+     */
+    public PipeInputBuffer(Duration ageLimit, long sizeLimitMb, boolean offHeap) {
         // Validate parameters
         if (ageLimit == null || ageLimit.isNegative() || ageLimit.isZero()) {
             throw new IllegalArgumentException("Age limit must be a positive duration");
@@ -32,6 +68,9 @@ public class PipeInputBuffer {
 
         this.ageLimit = ageLimit;
         this.sizeLimitMb = sizeLimitMb;
+        this.offHeapStore = offHeap
+                ? new OffHeapPacketStore((int) Math.min(sizeLimitMb * 1024 * 1024 / 8, MAX_SLAB_SIZE))
+                : null;
     }
 
     /**
@@ -39,27 +78,35 @@ public class PipeInputBuffer {
      *
      * @param packet - packet to push
      */
-    public synchronized void push(PipePacket packet) {
+    public void push(PipePacket packet) {
         if (packet != null) {
-            // Save the packet
-            packets.put(packet.getPackId(), packet);
+            // Save the packet, replacing any previous one with the same ID
+            Entry entry = offHeapStore != null ? storeOffHeap(packet) : new Entry(packet, estimateSize(packet));
+            totalSize.addAndGet(entry.size);
+            Entry previous = packets.put(packet.getPackId(), entry);
+            if (previous != null) {
+                totalSize.addAndGet(-previous.size);
+                if (previous.slot != null) {
+                    offHeapStore.free(previous.slot);
+                }
+            }
 
             // Index by reqId
             if (packet.getReqId() != null && !packet.getReqId().isBlank()) {
                 reqIdIndex.put(packet.getReqId(), packet.getPackId());
             }
 
-            // Index by timestamp
-            tsIndex.put(packet.getTs(), packet.getPackId());
-
-            // Calculate packets size
-            long packetSize = packet.toString().length();
-            this.packetSize.put(packet.getPackId(), packetSize);
-
-            // Remove by age
-            removeExpiredPackets();
-            // remove by size
-            removeBySizeLimit();
+            // Track arrival order and evict, unless another thread is already doing it
+            pending.add(entry);
+            while (!pending.isEmpty() && evictionLock.tryLock()) {
+                try {
+                    indexPending();
+                    evictExpired();
+                    evictBySize();
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
         }
     }
 
@@ -69,9 +116,9 @@ public class PipeInputBuffer {
      * @param reqId - request ID
      * @return packet
      */
-    public synchronized PipePacket peekByReqId(String reqId) {
-        String packId = reqIdIndex.get(reqId);
-        return packId != null ? packets.get(packId) : null;
+    public PipePacket peekByReqId(String reqId) {
+        String packId = reqId != null ? reqIdIndex.get(reqId) : null;
+        return packId != null ? peekByPackId(packId) : null;
     }
 
     /**
@@ -80,8 +127,9 @@ public class PipeInputBuffer {
      * @param packId - packet ID
      * @return packet
      */
-    public synchronized PipePacket peekByPackId(String packId) {
-        return packets.get(packId);
+    public PipePacket peekByPackId(String packId) {
+        Entry entry = packId != null ? packets.get(packId) : null;
+        return entry != null ? packetOf(entry) : null;
     }
 
     /**
@@ -90,13 +138,14 @@ public class PipeInputBuffer {
      * @param packId - packet ID
      * @return removed packet
      */
-    public synchronized PipePacket removeByPackId(String packId) {
-        PipePacket packet = packets.remove(packId);
-        if (packet != null) {
-            reqIdIndex.remove(packet.getReqId());
-            tsIndex.remove(packet.getTs());
-            packetSize.remove(packId);
+    public PipePacket removeByPackId(String packId) {
+        Entry entry = packId != null ? packets.remove(packId) : null;
+        if (entry == null) {
+            return null;
         }
+        // The arrival entry is dropped lazily by the eviction
+        PipePacket packet = packetOf(entry);
+        unindex(entry);
         return packet;
     }
 
@@ -104,7 +153,7 @@ public class PipeInputBuffer {
      * Get packet count
      * @return packet count
      */
-    public synchronized Integer getPacketCount() {
+    public Integer getPacketCount() {
         return packets.size();
     }
 
@@ -112,38 +161,193 @@ public class PipeInputBuffer {
      * Get total packet size
      * @return total packet size
      */
-    public synchronized Long getTotalPacketSize() {
-        return packetSize.values().stream().mapToLong(Long::longValue).sum();
+    public Long getTotalPacketSize() {
+        return totalSize.get();
+    }
+
+    /**
+     * Get the number of packets evicted by age or size
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the direct memory held by the off-heap storage
+     * @return off-heap size, 0 when packets are kept on heap
+     */
+    public Long getOffHeapSize() {
+        return offHeapStore != null ? offHeapStore.getAllocatedBytes() : 0L;
     }
 
 
     protected void removeBySizeLimit() {
+        evictionLock.lock();
+        try {
+            indexPending();
+            evictBySize();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    protected void removeExpiredPackets() {
+        evictionLock.lock();
+        try {
+            indexPending();
+            evictExpired();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of entries in the arrival index, including the ones of removed packets not yet dropped
+     *
+     * @return index size
+     */
+    int getIndexSize() {
+        evictionLock.lock();
+        try {
+            return arrivals.size() + pending.size();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void indexPending() {
+        Entry entry;
+        while ((entry = pending.poll()) != null) {
+            arrivals.addLast(entry);
+        }
+
+        // Drop the entries of removed packets: eagerly at the head, in bulk when they pile up behind live ones
+        while (!arrivals.isEmpty() && !isLive(arrivals.peekFirst())) {
+            arrivals.pollFirst();
+        }
+        if (arrivals.size() > 2 * packets.size() + 1024) {
+            arrivals.removeIf(e -> !isLive(e));
+        }
+    }
+
+    private void evictBySize() {
         // Remove packets starting from the oldest one until the total size is below the limit
         long sizeLimit = sizeLimitMb * 1024 * 1024;
-        long totalSize = packetSize.values().stream().mapToLong(Long::longValue).sum();
-        while (totalSize > sizeLimit) {
-            String packId = tsIndex.remove(tsIndex.firstKey());
-            PipePacket packet = packets.remove(packId);
-            if (packet != null) {
-                reqIdIndex.remove(packet.getReqId());
-                totalSize -= packetSize.get(packId);
-                packetSize.remove(packId);
-            }
+        while (totalSize.get() > sizeLimit && !arrivals.isEmpty()) {
+            evict(arrivals.pollFirst());
         }
     }
 
-    protected void removeExpiredPackets() {
+    private void evictExpired() {
         // Remove packets older than the age limit
-        Instant now = Instant.now();
-        Instant limit = now.minus(ageLimit);
-        while (!tsIndex.isEmpty() && tsIndex.firstKey().isBefore(limit)) {
-            String packId = tsIndex.remove(tsIndex.firstKey());
-            PipePacket packet = packets.remove(packId);
-            if (packet != null) {
-                reqIdIndex.remove(packet.getReqId());
-                tsIndex.remove(packet.getTs());
-                packetSize.remove(packId);
+        Instant limit = Instant.now().minus(ageLimit);
+        while (!arrivals.isEmpty() && arrivals.peekFirst().ts.isBefore(limit)) {
+            evict(arrivals.pollFirst());
+        }
+    }
+
+    private boolean isLive(Entry entry) {
+        return packets.get(entry.packId) == entry;
+    }
+
+    private void evict(Entry entry) {
+        // Skip entries already removed or replaced
+        if (packets.remove(entry.packId, entry)) {
+            unindex(entry);
+            evictions.increment();
+        }
+    }
+
+    private void unindex(Entry entry) {
+        if (entry.reqId != null) {
+            reqIdIndex.remove(entry.reqId, entry.packId);
+        }
+        totalSize.addAndGet(-entry.size);
+        if (entry.slot != null) {
+            offHeapStore.free(entry.slot);
+        }
+    }
+
+    private Entry storeOffHeap(PipePacket packet) {
+        OffHeapPacketStore.Slot slot = offHeapStore.write(packet);
+        long size = length(packet.getPackId()) + length(packet.getReqId()) + 12 + slot.getLength();
+        return new Entry(packet.getPackId(), packet.getReqId(), packet.getTs(), size, null, slot);
+    }
+
+    private PipePacket packetOf(Entry entry) {
+        return entry.slot != null
+                ? offHeapStore.read(entry.slot, entry.packId, entry.reqId, entry.ts)
+                : entry.packet;
+    }
+
+    /**
+     * Estimate the size of a packet in bytes.
+     * Received packets are sized by their encoded payload, the others by walking the payload values.
+     *
+     * @param packet - packet to size
+     * @return estimated size
+     */
+    protected static long estimateSize(PipePacket packet) {
+        long size = length(packet.getPackId()) + length(packet.getReqId()) + length(packet.getFunc())
+                + length(packet.getSndr()) + length(packet.getRcpt()) + 12;
+        if (packet instanceof LazyPipePacket lazyPacket) {
+            return size + lazyPacket.getEncodedSize();
+        }
+        return size + estimateValueSize(packet.getPayload());
+    }
+
+    private static long estimateValueSize(Object value) {
+        return switch (value) {
+            case null -> 1;
+            case CharSequence str -> str.length() + 1;
+            case Number ignored -> 8;
+            case Boolean ignored -> 1;
+            case Map<?, ?> map -> {
+                long size = 1;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    size += estimateValueSize(entry.getKey()) + estimateValueSize(entry.getValue());
+                }
+                yield size;
+            }
+            case Collection<?> collection -> {
+                long size = 1;
+                for (Object item : collection) {
+                    size += estimateValueSize(item);
+                }
+                yield size;
             }
+            default -> 16;
+        };
+    }
+
+    private static int length(String str) {
+        return str != null ? str.length() : 0;
+    }
+
+    /**
+     * Buffered packet with its size, compared by identity.
+     * Holds either the packet or the slot of its off-heap copy.
+     */
+    private static final class Entry {
+        private final String packId;
+        private final String reqId;
+        private final Instant ts;
+        private final long size;
+        private final PipePacket packet;
+        private final OffHeapPacketStore.Slot slot;
+
+        private Entry(PipePacket packet, long size) {
+            this(packet.getPackId(), packet.getReqId(), packet.getTs(), size, packet, null);
+        }
+
+        private Entry(String packId, String reqId, Instant ts, long size, PipePacket packet, OffHeapPacketStore.Slot slot) {
+            this.packId = packId;
+            this.reqId = reqId;
+            this.ts = ts != null ? ts : Instant.now();
+            this.size = size;
+            this.packet = packet;
+            this.slot = slot;
         }
     }
 
@@ -0,0 +1,252 @@
+package com.id.px3.pipe.logic;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer instrumentation of the pipe.
+ * Meters are built once and cached by topic or function, recording costs a map lookup and a clock read.
+ * Gauges are computed from the live objects when the registry is scraped, they cost nothing on the hot path.
+ * <p>
+ * Meters:
+ * <ul>
+ *     <li>px3.pipe.send - time from send to broker acknowledgement, by topic and outcome</li>
+ *     <li>px3.pipe.process - listener processing time of the received packets, by topic and outcome</li>
+ *     <li>px3.pipe.reader.pending - packets dispatched to a reader and not yet processed, by reader</li>
+ *     <li>px3.pipe.reader.lag - max records lag of the consumer of a reader, by group</li>
+ *     <li>px3.pipe.buffer.packets / .size / .offheap / .evictions - input buffer occupancy, by buffer</li>
+ *     <li>px3.rpc.client.calls - RPC round trip with p50/p99, by function and outcome</li>
+ *     <li>px3.rpc.client.retries / .timeouts - resent requests and attempts timed out, by function</li>
+ *     <li>px3.rpc.client.pending - calls waiting for a response</li>
+ *     <li>px3.rpc.server.requests - RPC execution time with p50/p99, by function and outcome</li>
+ *     <li>px3.rpc.server.timeouts / .expired - calls timed out and requests dropped past their deadline, by function</li>
+ *     <li>px3.rpc.server.dedup.hits / .misses - retried requests answered from the result cache, and requests executed</li>
+ *     <li>executor.* - saturation of the shared executors, by name</li>
+ * </ul>
+ */
+public class PipeMetrics {
+
+    public static final String OUTCOME_OK = "ok";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_TIMEOUT = "timeout";
+    public static final String OUTCOME_EXPIRED = "expired";
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public PipeMetrics(MeterRegistry registry) {
+        this.registry = registry != null ? registry : Metrics.globalRegistry;
+    }
+
+    /**
+     * Get the registry the meters are published to
+     *
+     * @return meter registry
+     */
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Record a send, from the write to the broker acknowledgement
+     *
+     * @param topic - topic written to
+     * @param startNanos - System.nanoTime() at the write
+     * @param error - write error, null on success
+     */
+    public void recordSend(String topic, long startNanos, Throwable error) {
+        timer("px3.pipe.send", "topic", topic, error == null ? OUTCOME_OK : OUTCOME_ERROR, false)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record the processing of a received packet by its listener
+     *
+     * @param topic - topic read from
+     * @param startNanos - System.nanoTime() at the start of the processing
+     * @param ok - false if the listener failed
+     */
+    public void recordProcess(String topic, long startNanos, boolean ok) {
+        timer("px3.pipe.process", "topic", topic, ok ? OUTCOME_OK : OUTCOME_ERROR, false)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Record an RPC call, from the first attempt to its outcome
+     *
+     * @param funcName - function name
+     * @param startNanos - System.nanoTime() at the call
+     * @param outcome - one of the OUTCOME constants
+     */
+    public void recordRpcCall(String funcName, long startNanos, String outcome) {
+        timer("px3.rpc.client.calls", "func", funcName, outcome, true)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Count a request resent after a timeout
+     *
+     * @param funcName - function name
+     */
+    public void countRpcRetry(String funcName) {
+        counter("px3.rpc.client.retries", "func", funcName).increment();
+    }
+
+    /**
+     * Count an attempt of an RPC call that timed out
+     *
+     * @param funcName - function name
+     */
+    public void countRpcTimeout(String funcName) {
+        counter("px3.rpc.client.timeouts", "func", funcName).increment();
+    }
+
+    /**
+     * Record the execution of an RPC request, from its reception to its result
+     *
+     * @param funcName - function name
+     * @param startNanos - System.nanoTime() at the reception
+     * @param outcome - one of the OUTCOME constants
+     */
+    public void recordRpcServe(String funcName, long startNanos, String outcome) {
+        timer("px3.rpc.server.requests", "func", funcName, outcome, true)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Count an RPC execution that timed out
+     *
+     * @param funcName - function name
+     */
+    public void countRpcServerTimeout(String funcName) {
+        counter("px3.rpc.server.timeouts", "func", funcName).increment();
+    }
+
+    /**
+     * Count a request dropped past its deadline
+     *
+     * @param funcName - function name
+     */
+    public void countRpcExpired(String funcName) {
+        counter("px3.rpc.server.expired", "func", funcName).increment();
+    }
+
+    /**
+     * Publish the dedup counters of an RPC result cache
+     *
+     * @param cache - result cache
+     */
+    public void monitorResultCache(RpcResultCache cache) {
+        FunctionCounter.builder("px3.rpc.server.dedup.hits", cache, RpcResultCache::getHits).register(registry);
+        FunctionCounter.builder("px3.rpc.server.dedup.misses", cache, RpcResultCache::getMisses).register(registry);
+        Gauge.builder("px3.rpc.server.dedup.size", cache, RpcResultCache::getSize).register(registry);
+    }
+
+    /**
+     * Publish a value as a gauge, evaluated when the registry is scraped.
+     * The object is weakly referenced, the gauge stops reporting once it is collected.
+     *
+     * @param name - gauge name
+     * @param obj - object the value is taken from
+     * @param value - value function
+     */
+    public <T> void gauge(String name, T obj, ToDoubleFunction<T> value) {
+        Gauge.builder(name, obj, value).register(registry);
+    }
+
+    /**
+     * Publish the records waiting or in progress in a reader dispatcher
+     *
+     * @param readerId - reader ID
+     * @param dispatcher - reader dispatcher
+     * @return gauge, to be removed with the reader
+     */
+    public Meter monitorDispatcher(String readerId, RecordDispatcher dispatcher) {
+        return Gauge.builder("px3.pipe.reader.pending", dispatcher, RecordDispatcher::getPending)
+                .tag("reader", readerId)
+                .register(registry);
+    }
+
+    /**
+     * Publish the consumer lag of a reader
+     *
+     * @param groupId - consumer group
+     * @param reader - topic reader
+     * @return gauge, to be removed with the reader
+     */
+    public Meter monitorReader(String groupId, KafkaTopicReader reader) {
+        return Gauge.builder("px3.pipe.reader.lag", reader, KafkaTopicReader::getRecordsLagMax)
+                .tag("group", groupId)
+                .register(registry);
+    }
+
+    /**
+     * Publish the occupancy of an input buffer
+     *
+     * @param name - buffer name
+     * @param buffer - input buffer
+     */
+    public void monitorBuffer(String name, PipeInputBuffer buffer) {
+        Tags tags = Tags.of("buffer", name);
+        Gauge.builder("px3.pipe.buffer.packets", buffer, PipeInputBuffer::getPacketCount).tags(tags).register(registry);
+        Gauge.builder("px3.pipe.buffer.size", buffer, PipeInputBuffer::getTotalPacketSize)
+                .tags(tags).baseUnit("bytes").register(registry);
+        Gauge.builder("px3.pipe.buffer.offheap", buffer, PipeInputBuffer::getOffHeapSize)
+                .tags(tags).baseUnit("bytes").register(registry);
+        FunctionCounter.builder("px3.pipe.buffer.evictions", buffer, PipeInputBuffer::getEvictionCount)
+                .tags(tags).register(registry);
+    }
+
+    /**
+     * Publish the pool size, active threads and queued tasks of an executor
+     *
+     * @param executorService - executor to monitor
+     * @param name - executor name
+     */
+    public void monitorExecutor(ExecutorService executorService, String name) {
+        new ExecutorServiceMetrics(executorService, name, Tags.empty()).bindTo(registry);
+    }
+
+    /**
+     * Remove a meter from the registry
+     *
+     * @param meter - meter to remove, may be null
+     */
+    public void remove(Meter meter) {
+        if (meter != null) {
+            registry.remove(meter);
+        }
+    }
+
+    private Timer timer(String name, String tagName, String tagValue, String outcome, boolean percentiles) {
+        String key = name + '|' + tagValue + '|' + outcome;
+        Timer timer = timers.get(key);
+        if (timer != null) {
+            return timer;
+        }
+        return timers.computeIfAbsent(key, k -> {
+            Timer.Builder builder = Timer.builder(name).tag(tagName, String.valueOf(tagValue)).tag("outcome", outcome);
+            if (percentiles) {
+                builder.publishPercentiles(0.5, 0.99);
+            }
+            return builder.register(registry);
+        });
+    }
+
+    private Counter counter(String name, String tagName, String tagValue) {
+        String key = name + '|' + tagValue;
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            return counter;
+        }
+        return counters.computeIfAbsent(key, k -> Counter.builder(name).tag(tagName, String.valueOf(tagValue)).register(registry));
+    }
+
+}
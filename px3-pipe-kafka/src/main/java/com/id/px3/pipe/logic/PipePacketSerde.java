@@ -0,0 +1,167 @@
+package com.id.px3.pipe.logic;
+
+import com.google.gson.Gson;
+import com.id.px3.pipe.codec.GsonPipeCodec;
+import com.id.px3.pipe.codec.PipeCodec;
+import com.id.px3.pipe.codec.PipeCodecs;
+import com.id.px3.pipe.model.LazyPipePacket;
+import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.utils.json.JsonUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maps pipe packets to Kafka records and back.
+ * Packet fields travel as record headers, the payload is encoded by the codec into a length-prefixed body.
+ * The codec id is written in its own header, records without it are read as legacy JSON packets.
+ * The gson codec writes legacy JSON packets, readable by the readers that predate the codecs,
+ * so that it can be used while some of them are still running.
+ */
+public class PipePacketSerde {
+
+    public static final String HEADER_CODEC = "codec";
+    public static final String HEADER_PACK_ID = "packId";
+    public static final String HEADER_REQ_ID = "reqId";
+    public static final String HEADER_FUNC = "func";
+    public static final String HEADER_TS = "ts";
+    public static final String HEADER_SNDR = "sndr";
+    public static final String HEADER_RCPT = "rcpt";
+    public static final String HEADER_DEADLINE = "dl";
+
+    private final PipeCodec codec;
+    private final boolean legacy;
+    private final Gson gson = JsonUtils.newGson();
+
+    public PipePacketSerde(PipeCodec codec) {
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec must not be null");
+        }
+        this.codec = codec;
+        this.legacy = codec.id() == GsonPipeCodec.ID;
+    }
+
+    /**
+     * Build the record headers of a packet
+     *
+     * @param packet - packet
+     * @return record headers
+     */
+    public List<Header> toHeaders(PipePacket packet) {
+        List<Header> headers = new ArrayList<>(8);
+        if (!legacy) {
+            headers.add(new RecordHeader(HEADER_CODEC, new byte[]{codec.id()}));
+        }
+        // Written for legacy packets too, e.g. for keyed readers, the readers ignore them
+        addHeader(headers, HEADER_PACK_ID, packet.getPackId());
+        addHeader(headers, HEADER_REQ_ID, packet.getReqId());
+        addHeader(headers, HEADER_FUNC, packet.getFunc());
+        addHeader(headers, HEADER_TS, packet.getTs());
+        addHeader(headers, HEADER_SNDR, packet.getSndr());
+        addHeader(headers, HEADER_RCPT, packet.getRcpt());
+        addHeader(headers, HEADER_DEADLINE, packet.getDl());
+        return headers;
+    }
+
+    /**
+     * Build the record body of a packet
+     *
+     * @param packet - packet
+     * @return record body
+     */
+    public byte[] toBody(PipePacket packet) {
+        if (legacy) {
+            // Whole packet as a JSON string; getPayload() materializes the payload of a lazy packet first
+            packet.getPayload();
+            return gson.toJson(packet).getBytes(StandardCharsets.UTF_8);
+        }
+        byte[] payload = codec.encode(packet.getPayload());
+        return ByteBuffer.allocate(4 + payload.length)
+                .putInt(payload.length)
+                .put(payload)
+                .array();
+    }
+
+    /**
+     * Read a packet from a record. The payload is decoded lazily, see {@link LazyPipePacket}.
+     *
+     * @param record - consumer record
+     * @return packet
+     */
+    public PipePacket fromRecord(ConsumerRecord<String, byte[]> record) {
+        Headers headers = record.headers();
+        Header codecHeader = headers.lastHeader(HEADER_CODEC);
+        if (codecHeader == null || codecHeader.value() == null || codecHeader.value().length != 1) {
+            // Legacy packet - the whole packet is a JSON string
+            return gson.fromJson(new String(record.value(), StandardCharsets.UTF_8), PipePacket.class);
+        }
+
+        // Payload is decoded on demand, straight from the record bytes
+        LazyPipePacket packet = new LazyPipePacket(
+                headerString(headers, HEADER_PACK_ID),
+                headerString(headers, HEADER_REQ_ID),
+                headerString(headers, HEADER_FUNC),
+                headerInstant(headers, HEADER_TS),
+                headerString(headers, HEADER_SNDR),
+                headerString(headers, HEADER_RCPT),
+                PipeCodecs.forId(codecHeader.value()[0]),
+                payloadOf(record.value()));
+        packet.setDl(headerInstant(headers, HEADER_DEADLINE));
+        return packet;
+    }
+
+    /**
+     * Get the payload section of a record body, without copying it
+     *
+     * @param body - record body
+     * @return payload buffer
+     */
+    public static ByteBuffer payloadOf(byte[] body) {
+        if (body == null || body.length < 4) {
+            throw new IllegalArgumentException("Record body is too short");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid payload length %d in record body".formatted(length));
+        }
+        return buffer.slice(4, length);
+    }
+
+    private static void addHeader(List<Header> headers, String key, String value) {
+        if (value != null) {
+            headers.add(new RecordHeader(key, value.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static void addHeader(List<Header> headers, String key, Instant value) {
+        if (value != null) {
+            headers.add(new RecordHeader(key, ByteBuffer.allocate(12)
+                    .putLong(value.getEpochSecond())
+                    .putInt(value.getNano())
+                    .array()));
+        }
+    }
+
+    private static String headerString(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header != null && header.value() != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    }
+
+    private static Instant headerInstant(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        if (header == null || header.value() == null || header.value().length != 12) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header.value());
+        return Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.id.px3.pipe.logic;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+/**
+ * Hands the records polled by a reader over to their processing
+ */
+public interface RecordDispatcher {
+
+    /**
+     * Dispatch a record for processing
+     *
+     * @param record - record to process
+     * @param onComplete - callback to run once the record is processed, whatever the outcome
+     * @return false if the dispatcher is full and the record was not accepted
+     */
+    boolean dispatch(ConsumerRecord<String, byte[]> record, Runnable onComplete);
+
+    /**
+     * Check if a paused reader can resume polling
+     *
+     * @return true if there is enough room for new records
+     */
+    boolean canResume();
+
+    /**
+     * Get the number of records accepted and not yet processed
+     *
+     * @return pending records
+     */
+    int getPending();
+
+    /**
+     * Release the dispatcher resources
+     */
+    void close();
+
+}
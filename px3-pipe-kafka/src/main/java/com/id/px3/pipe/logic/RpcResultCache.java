@@ -0,0 +1,148 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.model.PipeRpcResult;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Results of the RPC requests, by request key, so that a retried request is answered without running it again.
+ * A retry arriving while the first execution is still running joins it.
+ * Entries expire after the TTL, or at the deadline of their request if it is later: the caller keeps retrying
+ * until its deadline, a retry must find the result however long the retries take.
+ * The oldest ones are evicted first when the cache is full.
+ */
+public class RpcResultCache {
+
+    private final long ttlMs;
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    // Entries in creation order, which is also their expiry order as long as they have no later deadline
+    private final Queue<Entry> arrivals = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    public RpcResultCache(Duration ttl, int maxSize) {
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be a positive duration");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be a positive number");
+        }
+        this.ttlMs = ttl.toMillis();
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Register the result of a request, unless the request has already been seen
+     *
+     * @param key - request key
+     * @param result - future that will be completed with the result of this execution
+     * @return null when the request is new and must be executed, the result of the first execution otherwise
+     */
+    public CompletableFuture<PipeRpcResult> putIfAbsent(String key, CompletableFuture<PipeRpcResult> result) {
+        return putIfAbsent(key, result, null);
+    }
+
+    /**
+     * Register the result of a request, unless the request has already been seen
+     *
+     * @param key - request key
+     * @param result - future that will be completed with the result of this execution
+     * @param deadline - deadline of the request, the result is kept at least until then; null for none
+     * @return null when the request is new and must be executed, the result of the first execution otherwise
+     */
+    public CompletableFuture<PipeRpcResult> putIfAbsent(String key, CompletableFuture<PipeRpcResult> result, Instant deadline) {
+        long now = System.currentTimeMillis();
+        long expiresMs = deadline != null ? Math.max(now + ttlMs, deadline.toEpochMilli()) : now + ttlMs;
+        Entry entry = new Entry(key, result, expiresMs);
+        Entry current = entries.compute(key, (k, existing) ->
+                existing != null && !existing.isExpired(now) ? existing : entry);
+        if (current != entry) {
+            hits.increment();
+            return current.result;
+        }
+
+        misses.increment();
+        size.incrementAndGet();
+        arrivals.add(entry);
+        evict(now);
+        return null;
+    }
+
+    /**
+     * Get the number of requests answered from the cache
+     *
+     * @return hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of requests executed
+     *
+     * @return miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of cached results
+     *
+     * @return cache size
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    private void evict(long now) {
+        // A single thread evicts at a time, the others move on
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            Entry oldest;
+            while ((oldest = arrivals.peek()) != null && (size.get() > maxSize || oldest.isExpired(now))) {
+                arrivals.poll();
+                size.decrementAndGet();
+                // Skip entries already replaced after expiring
+                entries.remove(oldest.key, oldest);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Cached result, compared by identity
+     */
+    private static final class Entry {
+        private final String key;
+        private final CompletableFuture<PipeRpcResult> result;
+        private final long expiresMs;
+
+        private Entry(String key, CompletableFuture<PipeRpcResult> result, long expiresMs) {
+            this.key = key;
+            this.result = result;
+            this.expiresMs = expiresMs;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresMs;
+        }
+    }
+
+}
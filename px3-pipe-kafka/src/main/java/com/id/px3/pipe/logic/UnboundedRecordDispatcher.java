@@ -0,0 +1,59 @@
+package com.id.px3.pipe.logic;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Submits every record to a shared executor, never applies backpressure
+ */
+@Slf4j
+public class UnboundedRecordDispatcher implements RecordDispatcher {
+
+    private final ExecutorService executorService;
+    private final Consumer<ConsumerRecord<String, byte[]>> handler;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public UnboundedRecordDispatcher(ExecutorService executorService, Consumer<ConsumerRecord<String, byte[]>> handler) {
+        this.executorService = executorService;
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean dispatch(ConsumerRecord<String, byte[]> record, Runnable onComplete) {
+        pending.incrementAndGet();
+        try {
+            executorService.submit(() -> {
+                try {
+                    handler.accept(record);
+                } finally {
+                    onComplete.run();
+                    pending.decrementAndGet();
+                }
+            });
+        } catch (RuntimeException e) {
+            pending.decrementAndGet();
+            throw e;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean canResume() {
+        return true;
+    }
+
+    @Override
+    public int getPending() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        // The executor is shared - nothing to release
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.id.px3.pipe.model;
+
+import com.id.px3.pipe.codec.PipeCodec;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Pipe packet backed by the raw bytes of the received record.
+ * Header fields are available right away, the payload is decoded only when it is first accessed,
+ * single payload values can be read without decoding the whole payload.
+ */
+public class LazyPipePacket extends PipePacket {
+
+    private final transient PipeCodec codec;
+    private final transient int encodedSize;
+    private transient ByteBuffer body;
+    private transient volatile boolean materialized;
+
+    public LazyPipePacket(String packId, String reqId, String func, Instant ts, String sndr, String rcpt,
+                          PipeCodec codec, ByteBuffer body) {
+        super(packId, reqId, func, ts, sndr, rcpt, null);
+        this.codec = codec;
+        this.body = body;
+        this.encodedSize = body.remaining();
+    }
+
+    @Override
+    public Map<String, Object> getPayload() {
+        if (!materialized) {
+            synchronized (this) {
+                if (!materialized) {
+                    super.setPayload(codec.decode(body));
+                    // Release the record bytes
+                    body = null;
+                    materialized = true;
+                }
+            }
+        }
+        return super.getPayload();
+    }
+
+    @Override
+    public synchronized void setPayload(Map<String, Object> payload) {
+        super.setPayload(payload);
+        body = null;
+        materialized = true;
+    }
+
+    @Override
+    public Object getPayloadValue(String key) {
+        if (!materialized) {
+            synchronized (this) {
+                if (!materialized) {
+                    return codec.decodeValue(body, key);
+                }
+            }
+        }
+        return super.getPayloadValue(key);
+    }
+
+    /**
+     * Check if the payload has been decoded
+     *
+     * @return true if the payload has been decoded
+     */
+    public boolean isMaterialized() {
+        return materialized;
+    }
+
+    /**
+     * Get the codec of the encoded payload
+     *
+     * @return payload codec
+     */
+    public PipeCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Get the encoded payload, as long as it has not been decoded
+     *
+     * @return read-only view of the encoded payload, null once the payload has been decoded
+     */
+    public synchronized ByteBuffer getEncodedBody() {
+        return body != null ? body.asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * Get the size of the encoded payload
+     *
+     * @return encoded payload size in bytes
+     */
+    public int getEncodedSize() {
+        return encodedSize;
+    }
+
+}
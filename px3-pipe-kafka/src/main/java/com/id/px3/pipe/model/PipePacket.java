@@ -24,4 +24,33 @@ public class PipePacket {
 
     private Map<String, Object> payload;
 
+    /**
+     * Time after which the sender does not wait for the packet to be processed anymore, null for no deadline
+     */
+    private Instant dl;
+
+    public PipePacket(String packId, String reqId, String func, Instant ts, String sndr, String rcpt, Map<String, Object> payload) {
+        this(packId, reqId, func, ts, sndr, rcpt, payload, null);
+    }
+
+    /**
+     * Get a single payload value
+     *
+     * @param key - payload key
+     * @return payload value, null if missing
+     */
+    public Object getPayloadValue(String key) {
+        Map<String, Object> payload = getPayload();
+        return payload != null ? payload.get(key) : null;
+    }
+
+    /**
+     * Check if the deadline of the packet has passed
+     *
+     * @return true if the packet has a deadline in the past
+     */
+    public boolean isExpired() {
+        return dl != null && Instant.now().isAfter(dl);
+    }
+
 }
@@ -1,12 +1,18 @@
 package com.id.px3.pipe.model;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class PipeRpcResult extends LinkedHashMap<String, Object> {
 
     public static final String RPC_OK = "___rpc_ok";
     public static final String RPC_ERROR = "___rpc_error";
+    public static final String RPC_BATCH = "___rpc_batch";
+    public static final String RPC_STREAM_SEQ = "___rpc_stream_seq";
+    public static final String RPC_STREAM_END = "___rpc_stream_end";
+    public static final String RPC_STREAM_CREDIT = "___rpc_stream_credit";
+    public static final String RPC_STREAM_CANCEL = "___rpc_stream_cancel";
 
     public static PipeRpcResult ok(Map<String, Object> result) {
         PipeRpcResult rpcResult = new PipeRpcResult();
@@ -22,6 +28,26 @@ public class PipeRpcResult extends LinkedHashMap<String, Object> {
         return rpcResult;
     }
 
+    public static PipeRpcResult batch(List<PipeRpcResult> results) {
+        PipeRpcResult rpcResult = new PipeRpcResult();
+        rpcResult.put(RPC_OK, true);
+        rpcResult.put(RPC_BATCH, results);
+        return rpcResult;
+    }
+
+    public static PipeRpcResult chunk(Map<String, Object> chunk, long seq) {
+        PipeRpcResult rpcResult = ok(chunk);
+        rpcResult.put(RPC_STREAM_SEQ, seq);
+        return rpcResult;
+    }
+
+    public static PipeRpcResult end(long seq, String error) {
+        PipeRpcResult rpcResult = error != null ? error(error) : ok(Map.of());
+        rpcResult.put(RPC_STREAM_SEQ, seq);
+        rpcResult.put(RPC_STREAM_END, true);
+        return rpcResult;
+    }
+
     public PipeRpcResult() {
     }
 
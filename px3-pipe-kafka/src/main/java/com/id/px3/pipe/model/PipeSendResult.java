@@ -0,0 +1,25 @@
+package com.id.px3.pipe.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+/**
+ * Outcome of a packet acknowledged by the broker
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PipeSendResult {
+
+    private PipePacket packet;
+    private String topic;
+    private int partition;
+    private long offset;
+
+    public static PipeSendResult of(PipePacket packet, RecordMetadata metadata) {
+        return new PipeSendResult(packet, metadata.topic(), metadata.partition(), metadata.offset());
+    }
+
+}
@@ -1,19 +1,20 @@
 package com.id.px3.pipe.service;
 
-import com.id.px3.pipe.logic.PipeInputBuffer;
+import com.id.px3.pipe.logic.PipeMetrics;
 import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.model.PipeRpcResult;
 import com.id.px3.utils.DurationParser;
+import com.id.px3.utils.SafeConvert;
+import jakarta.annotation.PreDestroy;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeoutException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
 
 @Service
 @Slf4j
@@ -22,24 +23,48 @@ public class PipeRpcClient {
     private final PipeService pipeService;
     @Setter
     private Duration rpcTimeout;
-    private final PipeInputBuffer responseBuffer;
     private final Integer rpcRetries;
-
+    private final ConcurrentMap<String, PendingCall> pendingCalls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, StreamCall> pendingStreams = new ConcurrentHashMap<>();
+    private final Set<String> responseReaders = ConcurrentHashMap.newKeySet();
+    private final ScheduledThreadPoolExecutor timeoutScheduler;
+    private final ExecutorService retryExecutor;
+    private final PipeMetrics metrics;
 
     public PipeRpcClient(PipeService pipeService,
                          @Value("${px3.kafka-pipe.rpc-timeout:30s}") String rpcTimeout,
-                         @Value("${px3.kafka-pipe.rpc-retries:3}") Integer rpcRetries,
-                         @Value("${px3.kafka-pipe.rpc-input-buffer-max-age:10m}") String rpcInputBufferMaxAge,
-                         @Value("${px3.kafka-pipe.rpc-input-buffer-max-size-mb:50}") Long rpcInputBufferMaxSizeMb) {
+                         @Value("${px3.kafka-pipe.rpc-retries:3}") Integer rpcRetries) {
         this.pipeService = pipeService;
         this.rpcTimeout = DurationParser.parse(rpcTimeout);
         this.rpcRetries = rpcRetries;
-        this.responseBuffer = new PipeInputBuffer(
-                DurationParser.parse(rpcInputBufferMaxAge),
-                rpcInputBufferMaxSizeMb);
+        this.metrics = pipeService.getMetrics();
+        metrics.gauge("px3.rpc.client.pending", pendingCalls, Map::size);
+
+        // A single timer thread drives the timeouts of all the pending calls,
+        // cancelled timeouts are dropped from the queue right away
+        this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "px3-rpc-timeouts");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+
+        // Retries are sent off the timer thread, a send blocked on the producer must not delay the other timeouts.
+        // Platform threads: the producer waits in a monitor, which would pin a virtual thread's carrier
+        this.retryExecutor = Executors.newCachedThreadPool(Thread.ofPlatform().name("px3-rpc-retry-", 0).daemon().factory());
+        metrics.monitorExecutor(retryExecutor, "px3-rpc-retry");
     }
 
-    @Async
+    /**
+     * Call a remote function. The returned future is completed by the response reader
+     * as soon as the response is received, no thread is held while waiting.
+     *
+     * @param sender - sender of the request
+     * @param funcName - function name
+     * @param params - function parameters
+     *
+     * @return future completed with the response packet
+     */
     public CompletableFuture<PipePacket> call(String sender, String funcName, Map<String, Object> params) {
         // Validate input
         if (sender == null || funcName == null || sender.isBlank() || funcName.isBlank()) {
@@ -50,59 +75,397 @@ public class PipeRpcClient {
             params = Map.of();
         }
 
-        CompletableFuture<PipePacket> future = new CompletableFuture<>();
         String rpcSender = "%s-rpc".formatted(sender);
         String rpcRecipient = "%s-rpc".formatted(funcName);
         String reqId = "%s-%d".formatted(UUID.randomUUID().toString(), System.currentTimeMillis());
 
+        // The server can drop the request once the caller stopped waiting for it, after the last retry
+        Instant deadline = Instant.now().plus(rpcTimeout.multipliedBy(Math.max(rpcRetries, 1)));
+        PendingCall call = new PendingCall(reqId, rpcSender, rpcRecipient, funcName, params, deadline);
         try {
-            PipePacket sentPacket = pipeService.send(rpcSender, rpcRecipient, params, funcName, reqId);
-            if (sentPacket == null) {
-                throw new IllegalStateException("Failed to send RPC request");
+            // Register reader to receive responses, once per sender
+            ensureResponseReader(rpcSender);
+        } catch (Exception e) {
+            call.future.completeExceptionally(e);
+            return call.future;
+        }
+
+        // Correlate the response by reqId, drop the entry whatever the outcome
+        long start = System.nanoTime();
+        pendingCalls.put(reqId, call);
+        call.future.whenComplete((response, error) -> {
+            pendingCalls.remove(reqId, call);
+            call.cancelTimeout();
+            metrics.recordRpcCall(funcName, start, outcomeOf(response, error));
+        });
+
+        sendAttempt(call);
+        return call.future;
+    }
+
+    /**
+     * Call a remote function once for each set of parameters. All the requests are packed into a single
+     * packet, the server dispatches them in parallel and answers with a single aggregated response.
+     *
+     * @param sender - sender of the requests
+     * @param funcName - function name
+     * @param paramsList - parameters of each call
+     *
+     * @return futures completed with the response of each call, in the same order as the parameters
+     */
+    public List<CompletableFuture<PipePacket>> callBatch(String sender, String funcName, List<Map<String, Object>> paramsList) {
+        // Validate input
+        if (paramsList == null || paramsList.isEmpty()) {
+            throw new IllegalArgumentException("Batch parameters must not be null or empty");
+        }
+
+        List<Map<String, Object>> items = new ArrayList<>(paramsList.size());
+        List<CompletableFuture<PipePacket>> futures = new ArrayList<>(paramsList.size());
+        for (Map<String, Object> params : paramsList) {
+            // Allow for void params
+            items.add(params != null ? params : Map.of());
+            futures.add(new CompletableFuture<>());
+        }
+
+        call(sender, funcName, Map.of(PipeRpcResult.RPC_BATCH, items)).whenComplete((response, error) -> {
+            if (error != null) {
+                futures.forEach(f -> f.completeExceptionally(error));
+                return;
             }
 
-            // Register reader to receive response
+            // Split the aggregated response, a response without results (i.e. an error) is handed to every call
+            Object results = response.getPayload() != null ? response.getPayload().get(PipeRpcResult.RPC_BATCH) : null;
+            List<?> resultList = results instanceof List<?> list && list.size() == futures.size() ? list : null;
+            for (int i = 0; i < futures.size(); i++) {
+                Map<String, Object> payload = resultList != null && resultList.get(i) instanceof Map<?, ?> item
+                        ? toPayload(item)
+                        : response.getPayload();
+                futures.get(i).complete(new PipePacket(response.getPackId(), response.getReqId(), response.getFunc(),
+                        response.getTs(), response.getSndr(), response.getRcpt(), payload));
+            }
+        });
+        return futures;
+    }
+
+    /**
+     * Call a streaming function. The request is sent when the subscriber first requests chunks, the demand of the subscriber
+     * is granted to the server as credit, so that no more chunks are sent than the subscriber asked for.
+     * Chunks are delivered in sequence. The stream fails if no chunk is received for the RPC timeout while chunks are requested.
+     * Streams are not retried.
+     *
+     * @param sender - sender of the request
+     * @param funcName - streaming function name
+     * @param params - function parameters
+     *
+     * @return publisher of the response chunks, supporting a single subscriber
+     */
+    public Flow.Publisher<PipePacket> callStream(String sender, String funcName, Map<String, Object> params) {
+        // Validate input
+        if (sender == null || funcName == null || sender.isBlank() || funcName.isBlank()) {
+            throw new IllegalArgumentException("Sender and function name must not be null or blank");
+        }
+        Map<String, Object> requestParams = params != null ? params : Map.of();
+
+        return subscriber -> {
+            if (subscriber == null) {
+                throw new NullPointerException("Subscriber must not be null");
+            }
+            String rpcSender = "%s-rpc".formatted(sender);
+            String reqId = "%s-%d".formatted(UUID.randomUUID().toString(), System.currentTimeMillis());
+            StreamCall stream = new StreamCall(reqId, rpcSender, funcName, requestParams, subscriber);
+            try {
+                ensureResponseReader(rpcSender);
+            } catch (Exception e) {
+                subscriber.onSubscribe(stream);
+                stream.fail(e);
+                return;
+            }
+            pendingStreams.put(reqId, stream);
+            subscriber.onSubscribe(stream);
+        };
+    }
+
+    /**
+     * Get the number of calls waiting for a response
+     *
+     * @return pending calls count
+     */
+    public int getPendingCallCount() {
+        return pendingCalls.size();
+    }
+
+    private static String outcomeOf(PipePacket response, Throwable error) {
+        if (error instanceof TimeoutException) {
+            return PipeMetrics.OUTCOME_TIMEOUT;
+        }
+        return error == null && Boolean.TRUE.equals(response.getPayloadValue(PipeRpcResult.RPC_OK))
+                ? PipeMetrics.OUTCOME_OK
+                : PipeMetrics.OUTCOME_ERROR;
+    }
+
+    private static Map<String, Object> toPayload(Map<?, ?> item) {
+        Map<String, Object> payload = new LinkedHashMap<>(item.size());
+        item.forEach((k, v) -> payload.put(String.valueOf(k), v));
+        return payload;
+    }
+
+    private void ensureResponseReader(String rpcSender) {
+        if (responseReaders.contains(rpcSender)) {
+            return;
+        }
+        synchronized (responseReaders) {
+            if (responseReaders.contains(rpcSender)) {
+                return;
+            }
             // User rpcSender as reader to avoid conflicts with other listeners
             try {
-                pipeService.registerReader(rpcSender, rpcSender, responseBuffer::push);
+                pipeService.registerReader(rpcSender, rpcSender, this::onResponse);
             } catch (IllegalStateException ignored) {
                 // Listener already exists - reuse it
             } catch (Exception e) {
                 throw new IllegalStateException("Failed to register listener for RPC response", e);
             }
+            responseReaders.add(rpcSender);
+        }
+    }
 
-            // Wait for response with retries
-            for (int attempt = 0; attempt < rpcRetries; attempt++) {
-                try {
-                    PipePacket response = awaitResponse(reqId, rpcTimeout);
-                    future.complete(response);
-                    return future;
-                } catch (TimeoutException e) {
-                    log.warn("Timeout waiting for response on attempt %d".formatted(attempt + 1));
+    private void onResponse(PipePacket packet) {
+        StreamCall stream = packet.getReqId() != null ? pendingStreams.get(packet.getReqId()) : null;
+        if (stream != null) {
+            stream.onChunk(packet);
+            return;
+        }
+        PendingCall call = packet.getReqId() != null ? pendingCalls.get(packet.getReqId()) : null;
+        if (call == null) {
+            // Late response after timeout, or a duplicate caused by a retry
+            log.debug("Discarding RPC response for unknown request %s".formatted(packet.getReqId()));
+            return;
+        }
+        call.future.complete(packet);
+    }
 
-                    // Retry sending if necessary or you can also choose to retry waiting for the response
-                    pipeService.send(rpcSender, rpcRecipient, params, funcName, reqId);
-                }
+    private void sendAttempt(PendingCall call) {
+        if (call.future.isDone()) {
+            return;
+        }
+        try {
+            PipePacket sentPacket = pipeService.send(call.rpcSender, call.rpcRecipient, call.params, call.funcName, call.reqId, call.deadline);
+            if (sentPacket == null) {
+                throw new IllegalStateException("Failed to send RPC request");
             }
-
-            throw new TimeoutException("RPC call did not succeed after " + rpcRetries + " attempts");
+            call.timeoutTask = timeoutScheduler.schedule(() -> onTimeout(call), rpcTimeout.toMillis(), TimeUnit.MILLISECONDS);
         } catch (Exception e) {
-            future.completeExceptionally(e);
+            call.future.completeExceptionally(e);
         }
-        return future;
     }
 
-    private PipePacket awaitResponse(String reqId, Duration timeout) throws InterruptedException, TimeoutException {
-        long waitUntil = System.currentTimeMillis() + timeout.toMillis();
-        while (System.currentTimeMillis() < waitUntil) {
-            PipePacket packet = responseBuffer.peekByReqId(reqId);
-            if (packet != null) {
-                responseBuffer.removeByPackId(packet.getPackId());
-                return packet;
+    private void onTimeout(PendingCall call) {
+        if (call.future.isDone()) {
+            return;
+        }
+        int attempt = ++call.attempts;
+        metrics.countRpcTimeout(call.funcName);
+        if (attempt >= rpcRetries) {
+            call.future.completeExceptionally(
+                    new TimeoutException("RPC call did not succeed after " + rpcRetries + " attempts"));
+            return;
+        }
+        log.warn("Timeout waiting for response on attempt %d".formatted(attempt));
+
+        // Resend with the same reqId. KafkaProducer.send can block up to max.block.ms (metadata fetch, full buffer),
+        // so the timer only hands the resend over
+        metrics.countRpcRetry(call.funcName);
+        try {
+            retryExecutor.execute(() -> sendAttempt(call));
+        } catch (RejectedExecutionException e) {
+            call.future.completeExceptionally(new CancellationException("RPC client is shutting down"));
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        timeoutScheduler.shutdownNow();
+        retryExecutor.shutdownNow();
+        pendingCalls.values().forEach(call ->
+                call.future.completeExceptionally(new CancellationException("RPC client is shutting down")));
+        pendingCalls.clear();
+        pendingStreams.values().forEach(stream -> stream.fail(new CancellationException("RPC client is shutting down")));
+    }
+
+    private static class PendingCall {
+        private final String reqId;
+        private final String rpcSender;
+        private final String rpcRecipient;
+        private final String funcName;
+        private final Map<String, Object> params;
+        private final Instant deadline;
+        private final CompletableFuture<PipePacket> future = new CompletableFuture<>();
+        // Updated by the timer thread, read when the call is resent
+        private volatile int attempts;
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        private PendingCall(String reqId, String rpcSender, String rpcRecipient, String funcName, Map<String, Object> params, Instant deadline) {
+            this.reqId = reqId;
+            this.rpcSender = rpcSender;
+            this.rpcRecipient = rpcRecipient;
+            this.funcName = funcName;
+            this.params = params;
+            this.deadline = deadline;
+        }
+
+        private void cancelTimeout() {
+            ScheduledFuture<?> task = timeoutTask;
+            if (task != null) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Streamed call, forwards the subscriber demand to the server as credit and delivers the chunks in sequence
+     */
+    private class StreamCall implements Flow.Subscription {
+        private final String reqId;
+        private final String rpcSender;
+        private final String funcName;
+        private final Map<String, Object> params;
+        private final Flow.Subscriber<? super PipePacket> subscriber;
+        // Chunks received ahead of their turn, by sequence number
+        private final TreeMap<Long, PipePacket> received = new TreeMap<>();
+        private boolean started;
+        private boolean done;
+        private long nextSeq;
+        private long outstanding;
+        private ScheduledFuture<?> timeoutTask;
+
+        private StreamCall(String reqId, String rpcSender, String funcName, Map<String, Object> params,
+                           Flow.Subscriber<? super PipePacket> subscriber) {
+            this.reqId = reqId;
+            this.rpcSender = rpcSender;
+            this.funcName = funcName;
+            this.params = params;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("Requested chunks must be a positive number"));
+                return;
+            }
+            boolean first;
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                first = !started;
+                started = true;
+                outstanding = outstanding + n < 0 ? Long.MAX_VALUE : outstanding + n;
+                rescheduleTimeout();
+            }
+
+            try {
+                PipePacket sentPacket;
+                if (first) {
+                    // The request carries the initial credit, it can be dropped by the server if not served in time
+                    Map<String, Object> payload = new LinkedHashMap<>(params);
+                    payload.put(PipeRpcResult.RPC_STREAM_CREDIT, n);
+                    sentPacket = pipeService.send(rpcSender, "%s-rpc".formatted(funcName), payload, funcName, reqId,
+                            Instant.now().plus(rpcTimeout));
+                } else {
+                    sentPacket = pipeService.send(rpcSender, "%s-rpc-credit".formatted(funcName),
+                            Map.of(PipeRpcResult.RPC_STREAM_CREDIT, n), funcName, reqId);
+                }
+                if (sentPacket == null) {
+                    throw new IllegalStateException("Failed to send RPC stream request");
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                finish();
+            }
+            if (started) {
+                pipeService.send(rpcSender, "%s-rpc-credit".formatted(funcName),
+                        Map.of(PipeRpcResult.RPC_STREAM_CANCEL, true), funcName, reqId);
+            }
+        }
+
+        private synchronized void onChunk(PipePacket packet) {
+            if (done) {
+                return;
+            }
+            Long seq = SafeConvert.toLong(packet.getPayloadValue(PipeRpcResult.RPC_STREAM_SEQ)).orElse(null);
+            if (seq == null || seq < nextSeq) {
+                // Not a chunk, or already delivered
+                return;
+            }
+            received.put(seq, packet);
+
+            // Deliver the chunks in sequence, up to the end marker
+            PipePacket next;
+            while (!done && (next = received.remove(nextSeq)) != null) {
+                nextSeq++;
+                if (Boolean.TRUE.equals(next.getPayloadValue(PipeRpcResult.RPC_STREAM_END))) {
+                    finish();
+                    if (Boolean.TRUE.equals(next.getPayloadValue(PipeRpcResult.RPC_OK))) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(new IllegalStateException(String.valueOf(next.getPayloadValue(PipeRpcResult.RPC_ERROR))));
+                    }
+                    return;
+                }
+                outstanding--;
+                subscriber.onNext(next);
+            }
+            rescheduleTimeout();
+        }
+
+        private void onTimeout() {
+            synchronized (this) {
+                if (done || outstanding <= 0) {
+                    // Nothing requested, the server is waiting for credit
+                    return;
+                }
+            }
+            fail(new TimeoutException("No RPC stream chunk received within %d ms".formatted(rpcTimeout.toMillis())));
+        }
+
+        private void fail(Throwable error) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                finish();
+            }
+            subscriber.onError(error);
+        }
+
+        private void finish() {
+            done = true;
+            received.clear();
+            pendingStreams.remove(reqId, this);
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+        }
+
+        private void rescheduleTimeout() {
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+            }
+            try {
+                timeoutTask = timeoutScheduler.schedule(this::onTimeout, rpcTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Client shutting down
             }
-            // Short delay to avoid busy waiting
-            Thread.sleep(10);
         }
-        throw new TimeoutException("Timeout while waiting for RPC response");
     }
 }
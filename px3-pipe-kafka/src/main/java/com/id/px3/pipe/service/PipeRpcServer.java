@@ -1,13 +1,24 @@
 package com.id.px3.pipe.service;
 
+import com.id.px3.pipe.config.PipeServeOptions;
+import com.id.px3.pipe.logic.PipeMetrics;
+import com.id.px3.pipe.logic.RpcResultCache;
 import com.id.px3.pipe.model.PipePacket;
 import com.id.px3.pipe.model.PipeRpcResult;
+import com.id.px3.utils.DurationParser;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 @Service
@@ -16,19 +27,72 @@ public class PipeRpcServer {
 
     private final PipeService pipeService;
     private final ConcurrentMap<String, Function<PipePacket, PipeRpcResult>> handlers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BiConsumer<PipePacket, PipeStreamSink>> streamHandlers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ServerStream> activeStreams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FunctionLimits> functionLimits = new ConcurrentHashMap<>();
+    private final int rpcBatchParallelism;
+    private final ScheduledThreadPoolExecutor timeoutScheduler;
+    private final ExecutorService replyExecutor;
+    private final RpcResultCache resultCache;
+    private final LongAdder expiredRequests = new LongAdder();
+    private final long streamIdleTimeoutMs;
+    private final PipeMetrics metrics;
 
-    public PipeRpcServer(PipeService pipeService) {
+    public PipeRpcServer(PipeService pipeService,
+                         @Value("${px3.kafka-pipe.rpc-batch-parallelism:8}") Integer rpcBatchParallelism,
+                         // Requests with a deadline are kept until then, the TTL covers the callers that send none:
+                         // default rpc-timeout x rpc-retries (30s x 3) plus a margin
+                         @Value("${px3.kafka-pipe.rpc-dedup-ttl:120s}") String rpcDedupTtl,
+                         @Value("${px3.kafka-pipe.rpc-dedup-max-size:10000}") Integer rpcDedupMaxSize,
+                         @Value("${px3.kafka-pipe.rpc-stream-idle-timeout:60s}") String rpcStreamIdleTimeout) {
         this.pipeService = pipeService;
+        this.rpcBatchParallelism = rpcBatchParallelism;
+        this.resultCache = new RpcResultCache(DurationParser.parse(rpcDedupTtl), rpcDedupMaxSize);
+        this.streamIdleTimeoutMs = DurationParser.parse(rpcStreamIdleTimeout).toMillis();
+        this.metrics = pipeService.getMetrics();
+        metrics.monitorResultCache(resultCache);
+        metrics.gauge("px3.rpc.server.streams", activeStreams, Map::size);
+
+        // A single timer thread drives the timeouts of all the running calls
+        this.timeoutScheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "px3-rpc-server-timeouts");
+            t.setDaemon(true);
+            return t;
+        });
+        this.timeoutScheduler.setRemoveOnCancelPolicy(true);
+
+        // Replies are sent off the thread completing the result, which may be the timer: a send blocked on the
+        // producer (up to max.block.ms) must not delay the other timeouts.
+        // Platform threads: the producer waits in a monitor, which would pin a virtual thread's carrier
+        this.replyExecutor = Executors.newCachedThreadPool(Thread.ofPlatform().name("px3-rpc-reply-", 0).daemon().factory());
+        metrics.monitorExecutor(replyExecutor, "px3-rpc-reply");
     }
 
     /**
      * Register a function handler. Packets will be received on the 'function name'-rpc topic.
      * Responses will be sent to the sender on the same topic, resusing the request ID as a reference.
+     * Batched requests are unpacked and dispatched to the handler in parallel, up to rpc-batch-parallelism items of the function at once,
+     * then answered with a single response.
+     * Requests resent with the same request ID are answered with the result of the first execution.
+     * Requests past their deadline are dropped unanswered, as the caller is not waiting for them anymore.
+     *
+     * @param funcName - function name
+     * @param handler - function handler
+     */
+    public void serve(String funcName, Function<PipePacket, PipeRpcResult> handler) {
+        serve(funcName, handler, PipeServeOptions.defaults());
+    }
+
+    /**
+     * Register a function handler, running its calls as set by the options.
+     * A function with a concurrency limit pauses its own topic when its queue is full, without holding back the others.
+     * The items of batched requests run on an executor of the function, within the same concurrency limit as the single calls.
      *
      * @param funcName - function name
      * @param handler - function handler
+     * @param options - concurrency, queue depth and timeout of the calls
      */
-    public synchronized void serve(String funcName, Function<PipePacket, PipeRpcResult> handler) {
+    public synchronized void serve(String funcName, Function<PipePacket, PipeRpcResult> handler, PipeServeOptions options) {
         // Validate input
         if (funcName == null || funcName.isBlank()) {
             throw new IllegalArgumentException("Function name must not be null or blank");
@@ -36,40 +100,442 @@ public class PipeRpcServer {
         if (handler == null) {
             throw new IllegalArgumentException("Handler must not be null");
         }
+        if (options == null) {
+            throw new IllegalArgumentException("Serve options must not be null");
+        }
 
         // Register the handler, allow for only one handler per function name
-        if (handlers.get(funcName) != null) {
+        if (handlers.get(funcName) != null || streamHandlers.get(funcName) != null) {
             throw new IllegalArgumentException("Handler for function %s already exists".formatted(funcName));
         }
         handlers.put(funcName, handler);
+        FunctionLimits limits = new FunctionLimits(funcName, options);
+        functionLimits.put(funcName, limits);
 
         // Listen to function calls and invoke handler
         String rpcRecipient = "%s-rpc".formatted(funcName);
         try {
             pipeService.registerReader(rpcRecipient, rpcRecipient, packet -> {
 
+                // Skip requests that waited in the backlog past their deadline
+                if (dropIfExpired(funcName, packet)) {
+                    return;
+                }
+
+                // Answer a retried request with the result of the first execution, as soon as it is available
+                CompletableFuture<PipeRpcResult> result = new CompletableFuture<>();
+                CompletableFuture<PipeRpcResult> firstResult = packet.getReqId() != null
+                        ? resultCache.putIfAbsent("%s:%s".formatted(funcName, packet.getReqId()), result, packet.getDl())
+                        : null;
+                if (firstResult != null) {
+                    log.debug("Received duplicate packet for function %s - reqId %s".formatted(funcName, packet.getReqId()));
+                    // Completed by the first execution, possibly on the timer, the reply is sent off that thread
+                    firstResult.thenAcceptAsync(rpcResult -> reply(funcName, packet, rpcResult), replyExecutor);
+                    return;
+                }
+                long start = System.nanoTime();
+                result.whenComplete((rpcResult, error) -> metrics.recordRpcServe(funcName, start, outcomeOf(rpcResult, error)));
+                result.thenAcceptAsync(rpcResult -> reply(funcName, packet, rpcResult), replyExecutor);
+
+                // Handle batched request
+                if (packet.getPayloadValue(PipeRpcResult.RPC_BATCH) instanceof List<?> items) {
+                    log.debug("Received batch of %d packets for function %s".formatted(items.size(), funcName));
+                    handleBatch(funcName, handler, packet, items, options, limits, result);
+                    return;
+                }
+
                 // Handle request
                 log.debug("Received packet for function %s".formatted(funcName));
-                PipeRpcResult rpcResult;
+                if (!limits.acquire()) {
+                    result.complete(PipeRpcResult.error("Function %s interrupted".formatted(funcName)));
+                    return;
+                }
                 try {
-                    rpcResult = handler.apply(packet);
-                } catch (Exception e) {
-                    log.error("Error processing packet for function %s - reqId %s".formatted(funcName, packet.getReqId()), e);
-                    rpcResult = PipeRpcResult.error(e.getMessage());
+                    if (packet.isExpired()) {
+                        // Expired while waiting for a slot
+                        expiredRequests.increment();
+                        metrics.countRpcExpired(funcName);
+                        result.cancel(false);
+                        return;
+                    }
+                    handle(funcName, handler, packet, options, result);
+                } finally {
+                    limits.release();
                 }
+            }, options.applyTo(pipeService.defaultReaderOptions()));
+        } catch (Exception e) {
+            handlers.remove(funcName);
+            functionLimits.remove(funcName);
+            limits.close();
+            log.error("Error registering reader for function %s".formatted(funcName), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Register a streaming function handler. The handler sends its response as a sequence of chunks through the sink,
+     * then returns. The caller grants credit for the chunks it is ready to receive, on the 'function name'-rpc-credit topic,
+     * and the sink waits for credit before sending. A stream without credit for longer than the idle timeout is cancelled.
+     * Handlers throwing an exception end the stream with an error.
+     * Every stream holds a worker until it ends, the options bound how many run at once.
+     *
+     * @param funcName - function name
+     * @param handler - streaming function handler
+     * @param options - concurrency and queue depth of the streams
+     */
+    public synchronized void serveStream(String funcName, BiConsumer<PipePacket, PipeStreamSink> handler, PipeServeOptions options) {
+        // Validate input
+        if (funcName == null || funcName.isBlank()) {
+            throw new IllegalArgumentException("Function name must not be null or blank");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler must not be null");
+        }
+        if (options == null) {
+            throw new IllegalArgumentException("Serve options must not be null");
+        }
+        if (handlers.get(funcName) != null || streamHandlers.get(funcName) != null) {
+            throw new IllegalArgumentException("Handler for function %s already exists".formatted(funcName));
+        }
+        streamHandlers.put(funcName, handler);
 
-                // Send response
-                pipeService.send(packet.getRcpt(), packet.getSndr(), rpcResult, funcName, packet.getReqId());
+        String rpcRecipient = "%s-rpc".formatted(funcName);
+        String creditRecipient = "%s-rpc-credit".formatted(funcName);
+        try {
+            // Credits are read apart from the requests, so that they are never queued behind streams waiting for them
+            pipeService.registerReader(creditRecipient, creditRecipient, packet -> {
+                if (packet.getReqId() != null) {
+                    // Credit may arrive before its request has been picked up
+                    streamFor(funcName, packet.getReqId()).onCredit(packet);
+                }
             });
+            pipeService.registerReader(rpcRecipient, rpcRecipient, packet -> {
+                if (dropIfExpired(funcName, packet) || packet.getReqId() == null) {
+                    return;
+                }
+                String key = streamKey(funcName, packet.getReqId());
+                ServerStream stream = streamFor(funcName, packet.getReqId());
+                if (!stream.start(packet)) {
+                    log.debug("Ignoring duplicate stream request for function %s - reqId %s".formatted(funcName, packet.getReqId()));
+                    return;
+                }
+                try {
+                    log.debug("Starting stream for function %s - reqId %s".formatted(funcName, packet.getReqId()));
+                    handler.accept(packet, stream);
+                    stream.end(null);
+                } catch (CancellationException e) {
+                    log.debug("Stream for function %s cancelled - reqId %s: %s".formatted(funcName, packet.getReqId(), e.getMessage()));
+                    stream.end(e.getMessage());
+                } catch (Exception e) {
+                    log.error("Error streaming function %s - reqId %s".formatted(funcName, packet.getReqId()), e);
+                    stream.end(e.getMessage());
+                } finally {
+                    activeStreams.remove(key, stream);
+                }
+            }, options.applyTo(pipeService.defaultReaderOptions()));
         } catch (Exception e) {
+            streamHandlers.remove(funcName);
             log.error("Error registering reader for function %s".formatted(funcName), e);
             throw e;
         }
     }
 
+    private ServerStream streamFor(String funcName, String reqId) {
+        String key = streamKey(funcName, reqId);
+        return activeStreams.computeIfAbsent(key, k -> {
+            ServerStream stream = new ServerStream(funcName);
+            try {
+                // Drop the credit of requests that never show up
+                timeoutScheduler.schedule(() -> {
+                    if (!stream.isStarted()) {
+                        activeStreams.remove(key, stream);
+                    }
+                }, streamIdleTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Server shutting down
+            }
+            return stream;
+        });
+    }
+
+    private static String streamKey(String funcName, String reqId) {
+        return "%s:%s".formatted(funcName, reqId);
+    }
+
+    private boolean dropIfExpired(String funcName, PipePacket packet) {
+        if (!packet.isExpired()) {
+            return false;
+        }
+        expiredRequests.increment();
+        metrics.countRpcExpired(funcName);
+        log.debug("Dropping expired packet for function %s - reqId %s, deadline %s".formatted(funcName, packet.getReqId(), packet.getDl()));
+        return true;
+    }
+
+    private void handle(String funcName, Function<PipePacket, PipeRpcResult> handler, PipePacket packet,
+                        PipeServeOptions options, CompletableFuture<PipeRpcResult> result) {
+        if (options.getTimeout() == null) {
+            result.complete(invoke(funcName, handler, packet));
+            return;
+        }
+
+        // Whatever comes first between the handler and the timeout is the result, the other is dropped.
+        // The handler is not interrupted, it keeps its slot until it returns.
+        ScheduledFuture<?> timeoutTask = timeoutScheduler.schedule(() -> {
+            if (result.complete(PipeRpcResult.error("Function %s timed out after %d ms"
+                    .formatted(funcName, options.getTimeout().toMillis())))) {
+                log.warn("Function %s timed out - reqId %s".formatted(funcName, packet.getReqId()));
+                metrics.countRpcServerTimeout(funcName);
+            }
+        }, options.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+
+        PipeRpcResult rpcResult = invoke(funcName, handler, packet);
+        timeoutTask.cancel(false);
+        if (!result.complete(rpcResult)) {
+            log.debug("Dropping late result of function %s - reqId %s".formatted(funcName, packet.getReqId()));
+        }
+    }
+
+    private void handleBatch(String funcName, Function<PipePacket, PipeRpcResult> handler, PipePacket packet, List<?> items,
+                             PipeServeOptions options, FunctionLimits limits, CompletableFuture<PipeRpcResult> result) {
+        // Dispatch every item as a packet of its own, on the executor of the function
+        AtomicBoolean abandoned = new AtomicBoolean();
+        List<CompletableFuture<PipeRpcResult>> futures = new ArrayList<>(items.size());
+        for (Object item : items) {
+            Map<String, Object> payload = new LinkedHashMap<>();
+            if (item instanceof Map<?, ?> params) {
+                params.forEach((k, v) -> payload.put(String.valueOf(k), v));
+            }
+            PipePacket itemPacket = new PipePacket(packet.getPackId(), packet.getReqId(), packet.getFunc(),
+                    packet.getTs(), packet.getSndr(), packet.getRcpt(), payload, packet.getDl());
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> invokeBatchItem(funcName, handler, itemPacket, limits, abandoned), limits.batchExecutor));
+        }
+
+        // The listener waits for the whole batch, so that the batch holds its slot of the function until it is done
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+        PipeRpcResult rpcResult;
+        try {
+            if (options.getTimeout() != null) {
+                all.get(options.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            } else {
+                all.get();
+            }
+            rpcResult = PipeRpcResult.batch(futures.stream().map(CompletableFuture::join).toList());
+        } catch (TimeoutException e) {
+            log.warn("Batch for function %s timed out - reqId %s".formatted(funcName, packet.getReqId()));
+            metrics.countRpcServerTimeout(funcName);
+            rpcResult = PipeRpcResult.error("Function %s timed out after %d ms"
+                    .formatted(funcName, options.getTimeout().toMillis()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rpcResult = PipeRpcResult.error("Function %s interrupted".formatted(funcName));
+        } catch (ExecutionException e) {
+            log.error("Error processing batch for function %s - reqId %s".formatted(funcName, packet.getReqId()), e.getCause());
+            rpcResult = PipeRpcResult.error(e.getCause().getMessage());
+        }
+        if (!all.isDone()) {
+            // Items not started yet are skipped, the running ones keep their slot until they return
+            abandoned.set(true);
+        }
+        result.complete(rpcResult);
+    }
+
+    private PipeRpcResult invokeBatchItem(String funcName, Function<PipePacket, PipeRpcResult> handler, PipePacket itemPacket,
+                                          FunctionLimits limits, AtomicBoolean abandoned) {
+        if (abandoned.get()) {
+            return PipeRpcResult.error("Batch abandoned");
+        }
+        if (!limits.acquire()) {
+            return PipeRpcResult.error("Function %s interrupted".formatted(funcName));
+        }
+        try {
+            // Checked per item, the caller may have given up while the batch was running
+            if (itemPacket.isExpired()) {
+                expiredRequests.increment();
+                metrics.countRpcExpired(funcName);
+                return PipeRpcResult.error("Deadline passed before the item was processed");
+            }
+            return invoke(funcName, handler, itemPacket);
+        } finally {
+            limits.release();
+        }
+    }
+
+    private static String outcomeOf(PipeRpcResult rpcResult, Throwable error) {
+        if (error instanceof CancellationException) {
+            return PipeMetrics.OUTCOME_EXPIRED;
+        }
+        return error == null && Boolean.TRUE.equals(rpcResult.get(PipeRpcResult.RPC_OK))
+                ? PipeMetrics.OUTCOME_OK
+                : PipeMetrics.OUTCOME_ERROR;
+    }
+
+    private PipeRpcResult invoke(String funcName, Function<PipePacket, PipeRpcResult> handler, PipePacket packet) {
+        try {
+            return handler.apply(packet);
+        } catch (Exception e) {
+            log.error("Error processing packet for function %s - reqId %s".formatted(funcName, packet.getReqId()), e);
+            return PipeRpcResult.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Get the number of requests dropped because past their deadline
+     *
+     * @return expired request count
+     */
+    public long getExpiredRequestCount() {
+        return expiredRequests.sum();
+    }
+
+    /**
+     * Get the cache of the request results, with its hit and miss counters
+     *
+     * @return result cache
+     */
+    public RpcResultCache getResultCache() {
+        return resultCache;
+    }
+
+    private void reply(String funcName, PipePacket packet, PipeRpcResult rpcResult) {
+        pipeService.send(packet.getRcpt(), packet.getSndr(), rpcResult, funcName, packet.getReqId());
+    }
+
     @PreDestroy
     public void close() {
         handlers.clear();
+        streamHandlers.clear();
+        activeStreams.values().forEach(ServerStream::cancel);
+        functionLimits.values().forEach(FunctionLimits::close);
+        functionLimits.clear();
+        timeoutScheduler.shutdownNow();
+        replyExecutor.shutdownNow();
+    }
+
+    /**
+     * Concurrency limit and batch item executor of a served function, so that a busy function does not hold back the others.
+     * Single calls and batch items share the same limit.
+     */
+    private class FunctionLimits {
+        // Null without a limit
+        private final Semaphore concurrency;
+        private final ExecutorService batchExecutor;
+
+        private FunctionLimits(String funcName, PipeServeOptions options) {
+            this.concurrency = options.getMaxConcurrency() > 0 ? new Semaphore(options.getMaxConcurrency()) : null;
+            String threadName = "px3-rpc-batch-%s-".formatted(funcName);
+            if (options.isVirtualThreads()) {
+                this.batchExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadName, 0).factory());
+            } else {
+                int threads = options.getMaxConcurrency() > 0 ? options.getMaxConcurrency() : rpcBatchParallelism;
+                this.batchExecutor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name(threadName, 0).daemon().factory());
+                metrics.monitorExecutor(batchExecutor, "px3-rpc-batch-" + funcName);
+            }
+        }
+
+        private boolean acquire() {
+            if (concurrency == null) {
+                return true;
+            }
+            try {
+                concurrency.acquire();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void release() {
+            if (concurrency != null) {
+                concurrency.release();
+            }
+        }
+
+        private void close() {
+            batchExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Streamed response to a single request, sending chunks as long as the caller grants credit
+     */
+    private class ServerStream implements PipeStreamSink {
+        private final String funcName;
+        private final Semaphore credits = new Semaphore(0);
+        private volatile PipePacket request;
+        private volatile boolean cancelled;
+        private long seq;
+
+        private ServerStream(String funcName) {
+            this.funcName = funcName;
+        }
+
+        private synchronized boolean start(PipePacket packet) {
+            if (request != null) {
+                return false;
+            }
+            request = packet;
+            // The request carries the initial credit
+            addCredit(packet.getPayloadValue(PipeRpcResult.RPC_STREAM_CREDIT));
+            return true;
+        }
+
+        private boolean isStarted() {
+            return request != null;
+        }
+
+        @Override
+        public void next(Map<String, Object> chunk) {
+            try {
+                if (!cancelled && !credits.tryAcquire(streamIdleTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    throw new CancellationException("No credit from the caller within %d ms".formatted(streamIdleTimeoutMs));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Stream interrupted");
+            }
+            if (cancelled) {
+                throw new CancellationException("Stream cancelled by the caller");
+            }
+            reply(funcName, request, PipeRpcResult.chunk(chunk != null ? chunk : Map.of(), seq++));
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void onCredit(PipePacket packet) {
+            if (Boolean.TRUE.equals(packet.getPayloadValue(PipeRpcResult.RPC_STREAM_CANCEL))) {
+                cancel();
+            } else {
+                addCredit(packet.getPayloadValue(PipeRpcResult.RPC_STREAM_CREDIT));
+            }
+        }
+
+        private synchronized void addCredit(Object credit) {
+            // Keep the permits in range whatever the caller asks for
+            long requested = credit instanceof Number n ? n.longValue() : 0;
+            int granted = (int) Math.min(requested, Integer.MAX_VALUE / 2 - credits.availablePermits());
+            if (granted > 0) {
+                credits.release(granted);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            // Wake up a handler waiting for credit
+            credits.release();
+        }
+
+        private void end(String error) {
+            if (request == null) {
+                return;
+            }
+            reply(funcName, request, PipeRpcResult.end(seq, error));
+        }
     }
 
 }
@@ -1,18 +1,28 @@
 package com.id.px3.pipe.service;
 
-import com.google.gson.Gson;
-import com.id.px3.pipe.logic.KafkaTopicReader;
-import com.id.px3.pipe.logic.KafkaTopicWriter;
+import com.id.px3.pipe.codec.PipeCodecs;
+import com.id.px3.pipe.config.PipeReaderOptions;
+import com.id.px3.pipe.config.ProducerProfile;
+import com.id.px3.pipe.logic.*;
 import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.model.PipeSendResult;
 import com.id.px3.utils.DurationParser;
-import com.id.px3.utils.json.JsonUtils;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.*;
@@ -24,18 +34,59 @@ public class PipeService {
 
     private final ConcurrentMap<String, KafkaTopicWriter> writers = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, KafkaTopicReader> readers = new ConcurrentHashMap<>();
-    private final ConcurrentMap<String, ScheduledFuture<?>> removalTasks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> readerTopics = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, KafkaTopicReader> groupReaders = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Meter> readerMeters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<KafkaTopicReader, Meter> lagMeters = new ConcurrentHashMap<>();
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     private final ExecutorService listenerExecutorService = Executors.newCachedThreadPool();
     private final Duration writerLife;
-    private final Gson gson;
+    private final PipePacketSerde serde;
+    private final ProducerProfile producerProfile;
+    private final Map<String, String> producerOverrides = new HashMap<>();
+    private final PipeMetrics metrics;
+    private KafkaProducerPool producerPool;
 
     @Value("${px3.kafka-pipe.bootstrap-servers:localhost:29092}")
     private String bootstrapServers;
 
-    public PipeService(@Value("${px3.kafka-pipe.writer-life:60s}") String writerLife) {
+    // Group shared by the readers registered without options, empty for a consumer per reader
+    @Value("${px3.kafka-pipe.reader-group:}")
+    private String readerGroup;
+
+    public PipeService(ObjectProvider<MeterRegistry> meterRegistry,
+                       @Value("${px3.kafka-pipe.writer-life:60s}") String writerLife,
+                       // gson until every reader can read the binary codec, see BinaryPipeCodec
+                       @Value("${px3.kafka-pipe.codec:gson}") String codec,
+                       @Value("${px3.kafka-pipe.producer-profile:default}") String producerProfile,
+                       @Value("${px3.kafka-pipe.producer-linger-ms:}") String lingerMs,
+                       @Value("${px3.kafka-pipe.producer-batch-size:}") String batchSize,
+                       @Value("${px3.kafka-pipe.producer-compression:}") String compression,
+                       @Value("${px3.kafka-pipe.producer-acks:}") String acks,
+                       @Value("${px3.kafka-pipe.producer-idempotence:}") String idempotence) {
         this.writerLife = DurationParser.parse(writerLife);
-        this.gson = JsonUtils.newGson();
+        this.serde = new PipePacketSerde(PipeCodecs.forName(codec));
+        this.producerProfile = ProducerProfile.fromName(producerProfile);
+
+        // Without a registry in the context meters go to the global one, a no-op until a registry is added to it
+        this.metrics = new PipeMetrics(meterRegistry.getIfAvailable());
+        metrics.monitorExecutor(listenerExecutorService, "px3-listener");
+
+        // Single settings override the ones of the profile
+        putOverride(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        putOverride(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        putOverride(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+        putOverride(ProducerConfig.ACKS_CONFIG, acks);
+        putOverride(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, idempotence);
+    }
+
+    @PostConstruct
+    public void init() {
+        producerPool = new KafkaProducerPool(bootstrapServers, producerOverrides);
+
+        // A single sweep drops the writers not used for writerLife, instead of a timer per send
+        long sweepMs = Math.max(writerLife.toMillis() / 2, 1);
+        scheduler.scheduleAtFixedRate(this::removeIdleWriters, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -50,25 +101,29 @@ public class PipeService {
      * @return the packet sent
      */
     public PipePacket send(String sender, String recipient, Map<String, Object> payload, String funcName, String reqId) {
-        // Validate input
-        if (sender == null || recipient == null || sender.isBlank() || recipient.isBlank()) {
-            throw new IllegalArgumentException("Sender, recipient, and message must not be null or blank");
-        }
-        // Allow for void payloads
-        if (payload == null || payload.isEmpty()) {
-            payload = Map.of();
-        }
-        // If there is a function name, it must not be blank and request ID must be provided
-        if (funcName != null && (funcName.isBlank() || reqId == null || reqId.isBlank())) {
-            throw new IllegalArgumentException("Function name must not be blank and request ID must be provided");
-        }
+        return send(sender, recipient, payload, funcName, reqId, null);
+    }
+
+    /**
+     * Send a message to a recipient, to be processed before a deadline
+     *
+     * @param sender - sender of the message
+     * @param recipient - recipient of the message
+     * @param payload - message payload
+     * @param funcName - function name
+     * @param reqId - request ID
+     * @param deadline - time after which the sender does not wait for the message to be processed, null for none
+     *
+     * @return the packet sent
+     */
+    public PipePacket send(String sender, String recipient, Map<String, Object> payload, String funcName, String reqId, Instant deadline) {
+        validate(sender, recipient, funcName, reqId);
 
         // Write and return packet
         try {
-            KafkaTopicWriter writer = writers.computeIfAbsent(recipient, this::createWriter);
             PipePacket packet = createPacket(sender, recipient, payload, funcName, reqId);
-            writer.write(gson.toJson(packet));
-            rescheduleRemoval(recipient, writer);
+            packet.setDl(deadline);
+            write(packet);
             return packet;
         } catch (Exception e) {
             log.error("Failed to send message: %s".formatted(e.getMessage()), e);
@@ -76,6 +131,58 @@ public class PipeService {
         return null;
     }
 
+    /**
+     * Send a message to a recipient and get notified of its delivery
+     *
+     * @param sender - sender of the message
+     * @param recipient - recipient of the message
+     * @param payload - message payload
+     * @param funcName - function name
+     * @param reqId - request ID
+     *
+     * @return future completed once the broker acknowledges the packet, or failed if it could not be written
+     */
+    public CompletableFuture<PipeSendResult> sendAsync(String sender, String recipient, Map<String, Object> payload, String funcName, String reqId) {
+        validate(sender, recipient, funcName, reqId);
+        return tryWrite(createPacket(sender, recipient, payload, funcName, reqId));
+    }
+
+    /**
+     * Send many messages at once. All the packets are appended to the producer and flushed once,
+     * without waiting for the linger time of the batches.
+     * Only sender, recipient, payload, function name, request ID and deadline of the given packets are used.
+     *
+     * @param packets - packets to send
+     *
+     * @return future completed with the results in the same order as the packets, failed if any of them could not be written
+     */
+    public CompletableFuture<List<PipeSendResult>> sendAll(List<PipePacket> packets) {
+        if (packets == null || packets.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        packets.forEach(p -> validate(p.getSndr(), p.getRcpt(), p.getFunc(), p.getReqId()));
+
+        List<CompletableFuture<PipeSendResult>> futures = new ArrayList<>(packets.size());
+        for (PipePacket p : packets) {
+            PipePacket packet = createPacket(p.getSndr(), p.getRcpt(), p.getPayload(), p.getFunc(), p.getReqId());
+            packet.setDl(p.getDl());
+            futures.add(tryWrite(packet));
+        }
+        producerPool.flush();
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * Get the pipe metrics, shared with the RPC client and server
+     *
+     * @return pipe metrics
+     */
+    public PipeMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Listen for messages sent to a recipient
      *
@@ -83,24 +190,74 @@ public class PipeService {
      * @param recipient - recipient to listen for
      * @param listener - listener to register
      */
-    public synchronized void registerReader(String readerId, String recipient, Consumer<PipePacket> listener) {
+    public void registerReader(String readerId, String recipient, Consumer<PipePacket> listener) {
+        registerReader(readerId, recipient, listener, defaultReaderOptions());
+    }
+
+    /**
+     * Get the options of the readers registered without options
+     *
+     * @return new default reader options
+     */
+    public PipeReaderOptions defaultReaderOptions() {
+        PipeReaderOptions options = PipeReaderOptions.defaults();
+        if (readerGroup != null && !readerGroup.isBlank()) {
+            options.setGroup(readerGroup);
+        }
+        return options;
+    }
+
+    /**
+     * Listen for messages sent to a recipient.
+     * Readers sharing a group in their options are served by a single consumer, subscribed to all their recipients.
+     *
+     * @param readerId - reader ID
+     * @param recipient - recipient to listen for
+     * @param listener - listener to register
+     * @param options - reader options
+     */
+    public synchronized void registerReader(String readerId, String recipient, Consumer<PipePacket> listener, PipeReaderOptions options) {
         // Check if the listener is already registered
         if (readers.containsKey(readerId)) {
             throw new IllegalStateException("Listener already registered for recipient: " + recipient);
+        }
+
+        RecordDispatcher dispatcher = createDispatcher(readerId, options, record -> {
+            long start = System.nanoTime();
+            boolean ok = false;
+            try {
+                PipePacket packet = serde.fromRecord(record);
+                listener.accept(packet);
+                ok = true;
+            } catch (Exception e) {
+                log.error("Error processing Kafka message: %s".formatted(e.getMessage()), e);
+            } finally {
+                metrics.recordProcess(record.topic(), start, ok);
+            }
+        });
+
+        KafkaTopicReader reader;
+        if (options.getGroup() == null || options.getGroup().isBlank()) {
+            reader = new KafkaTopicReader(bootstrapServers, recipient + "-group", recipient, options, dispatcher);
+            lagMeters.put(reader, metrics.monitorReader(recipient + "-group", reader));
         } else {
-            readers.computeIfAbsent(readerId, k ->
-                    new KafkaTopicReader(bootstrapServers, recipient + "-group", recipient, record -> {
-                        // Process record in a separate thread managed by listenerExecutorService
-                        listenerExecutorService.submit(() -> {
-                            try {
-                                PipePacket packet = gson.fromJson(record.value(), PipePacket.class);
-                                listener.accept(packet);  // This is now explicitly offloaded to a separate thread
-                            } catch (Exception e) {
-                                log.error("Error processing Kafka message: %s".formatted(e.getMessage()), e);
-                            }
-                        });
-                    }));
+            // Join the consumer of the group, the recipient is added to its subscription
+            reader = groupReaders.computeIfAbsent(options.getGroup(), group -> {
+                log.debug("Creating new reader for group: %s".formatted(group));
+                KafkaTopicReader groupReader = new KafkaTopicReader(bootstrapServers, group, options);
+                lagMeters.put(groupReader, metrics.monitorReader(group, groupReader));
+                return groupReader;
+            });
+            try {
+                reader.addTopic(recipient, dispatcher);
+            } catch (IllegalStateException e) {
+                dispatcher.close();
+                throw e;
+            }
         }
+        readers.put(readerId, reader);
+        readerTopics.put(readerId, recipient);
+        readerMeters.put(readerId, metrics.monitorDispatcher(readerId, dispatcher));
     }
 
     /**
@@ -110,12 +267,60 @@ public class PipeService {
      */
     public synchronized void unregisterReader(String readerId) {
         KafkaTopicReader reader = readers.remove(readerId);
+        String recipient = readerTopics.remove(readerId);
+        metrics.remove(readerMeters.remove(readerId));
         if (reader != null) {
-            reader.close();
+            if (groupReaders.containsValue(reader)) {
+                // Shared consumer keeps running for the other readers of the group
+                reader.removeTopic(recipient);
+            } else {
+                metrics.remove(lagMeters.remove(reader));
+                reader.close();
+            }
+        }
+    }
+
+    private RecordDispatcher createDispatcher(String readerId, PipeReaderOptions options, Consumer<ConsumerRecord<String, byte[]>> handler) {
+        return switch (options.getMode()) {
+            // Process record in a separate thread managed by listenerExecutorService
+            case UNBOUNDED -> new UnboundedRecordDispatcher(listenerExecutorService, handler);
+            case BOUNDED -> new BoundedRecordDispatcher("px3-reader-" + readerId, options, handler);
+            case KEYED -> new KeyedRecordDispatcher("px3-reader-" + readerId, options, handler);
+        };
+    }
+
+    private void validate(String sender, String recipient, String funcName, String reqId) {
+        if (sender == null || recipient == null || sender.isBlank() || recipient.isBlank()) {
+            throw new IllegalArgumentException("Sender, recipient, and message must not be null or blank");
+        }
+        // If there is a function name, it must not be blank and request ID must be provided
+        if (funcName != null && (funcName.isBlank() || reqId == null || reqId.isBlank())) {
+            throw new IllegalArgumentException("Function name must not be blank and request ID must be provided");
+        }
+    }
+
+    private CompletableFuture<PipeSendResult> write(PipePacket packet) {
+        long start = System.nanoTime();
+        KafkaTopicWriter writer = writers.computeIfAbsent(packet.getRcpt(), this::createWriter);
+        return writer.write(serde.toBody(packet), serde.toHeaders(packet))
+                .whenComplete((metadata, error) -> metrics.recordSend(packet.getRcpt(), start, error))
+                .thenApply(metadata -> PipeSendResult.of(packet, metadata));
+    }
+
+    private CompletableFuture<PipeSendResult> tryWrite(PipePacket packet) {
+        try {
+            return write(packet);
+        } catch (Exception e) {
+            log.error("Failed to send message: %s".formatted(e.getMessage()), e);
+            return CompletableFuture.failedFuture(e);
         }
     }
 
     private PipePacket createPacket(String sndr, String rcpt, Map<String, Object> payload, String funcName, String reqId) {
+        // Allow for void payloads
+        if (payload == null || payload.isEmpty()) {
+            payload = Map.of();
+        }
         Instant now = Instant.now();
         String id = "%s-%d".formatted(UUID.randomUUID().toString(), now.toEpochMilli());
         return new PipePacket(id, reqId, funcName, now, sndr, rcpt, payload);
@@ -123,23 +328,22 @@ public class PipeService {
 
     private KafkaTopicWriter createWriter(String topic) {
         log.debug("Creating new writer for topic: %s".formatted(topic));
-        return new KafkaTopicWriter(bootstrapServers, topic);
+        return new KafkaTopicWriter(producerPool.get(producerProfile), topic);
     }
 
-    private void rescheduleRemoval(String key, KafkaTopicWriter writer) {
-        // Cancel existing removal task
-        ScheduledFuture<?> existingTask = removalTasks.get(key);
-        if (existingTask != null && !existingTask.isDone()) {
-            existingTask.cancel(false);
-        }
+    private void removeIdleWriters() {
+        long idleSince = System.currentTimeMillis() - writerLife.toMillis();
+        writers.forEach((topic, writer) -> {
+            if (writer.getLastUsedMs() < idleSince && writers.remove(topic, writer)) {
+                log.debug("Removing writer for topic: %s".formatted(topic));
+            }
+        });
+    }
 
-        // Reschedule removal task
-        removalTasks.put(key, scheduler.schedule(() -> {
-            log.debug("Removing writer for topic: %s".formatted(key));
-            writers.remove(key);
-            writer.close();
-            removalTasks.remove(key);
-        }, writerLife.toMillis(), TimeUnit.MILLISECONDS));
+    private void putOverride(String key, String value) {
+        if (value != null && !value.isBlank()) {
+            producerOverrides.put(key, value.trim());
+        }
     }
 
     @PreDestroy
@@ -153,10 +357,19 @@ public class PipeService {
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
-            writers.values().forEach(KafkaTopicWriter::close);
-            readers.values().forEach(KafkaTopicReader::close);
+            readers.values().stream().filter(r -> !groupReaders.containsValue(r)).forEach(KafkaTopicReader::close);
+            groupReaders.values().forEach(KafkaTopicReader::close);
+            if (producerPool != null) {
+                producerPool.close();
+            }
+            readerMeters.values().forEach(metrics::remove);
+            lagMeters.values().forEach(metrics::remove);
+            readerMeters.clear();
+            lagMeters.clear();
             writers.clear();
             readers.clear();
+            readerTopics.clear();
+            groupReaders.clear();
         } catch (Exception e) {
             log.error("Error during shutdown: %s".formatted(e.getMessage()), e);
         }
@@ -0,0 +1,26 @@
+package com.id.px3.pipe.service;
+
+import java.util.Map;
+
+/**
+ * Receives the chunks of a streamed RPC response.
+ * Chunks are sent as soon as the caller has credit for them, otherwise {@link #next(Map)} waits for it.
+ */
+public interface PipeStreamSink {
+
+    /**
+     * Send a chunk to the caller, waiting for credit if needed
+     *
+     * @param chunk - chunk payload
+     * @throws java.util.concurrent.CancellationException if the caller cancelled the stream or stopped granting credit
+     */
+    void next(Map<String, Object> chunk);
+
+    /**
+     * Check if the caller cancelled the stream
+     *
+     * @return true if cancelled
+     */
+    boolean isCancelled();
+
+}
@@ -0,0 +1,78 @@
+package com.id.px3.pipe.logic;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffsetTrackerTest {
+
+    private static final TopicPartition PARTITION = new TopicPartition("topic", 0);
+
+    private static List<ConsumerRecord<String, byte[]>> records(int count) {
+        List<ConsumerRecord<String, byte[]>> records = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            records.add(new ConsumerRecord<>(PARTITION.topic(), PARTITION.partition(), i, null, new byte[0]));
+        }
+        return records;
+    }
+
+    @Test
+    void testCommitsUpToLowestInFlight() {
+        OffsetTracker tracker = new OffsetTracker();
+        List<ConsumerRecord<String, byte[]>> records = records(5);
+        List<Runnable> completions = records.stream().map(tracker::track).toList();
+
+        // Nothing done yet - nothing to commit past the first record
+        Map<TopicPartition, OffsetAndMetadata> offsets = tracker.committable();
+        assertEquals(0L, offsets.get(PARTITION).offset(), "Commit should not go past the first record in flight.");
+
+        // Records completing out of order do not move the commit past a gap
+        completions.get(1).run();
+        completions.get(3).run();
+        assertEquals(2, tracker.getCompletedSinceCommit(), "Completed records should be counted.");
+        assertTrue(tracker.committable().isEmpty(), "Commit should not move while the first record is in flight.");
+        assertEquals(0, tracker.getCompletedSinceCommit(), "Counter should be reset once offsets are returned.");
+
+        completions.get(0).run();
+        assertEquals(2L, tracker.committable().get(PARTITION).offset(), "Commit should stop at the next record in flight.");
+
+        completions.get(2).run();
+        completions.get(4).run();
+        assertEquals(5L, tracker.committable().get(PARTITION).offset(), "Commit should move past the last record once all are done.");
+        assertTrue(tracker.committable().isEmpty(), "Offsets already returned should not be returned again.");
+    }
+
+    @Test
+    void testUntrackedRecordIsNotCommitted() {
+        OffsetTracker tracker = new OffsetTracker();
+        List<ConsumerRecord<String, byte[]>> records = records(3);
+
+        // First record processed, the second one refused by the dispatcher
+        tracker.track(records.get(0)).run();
+        tracker.track(records.get(1));
+        tracker.untrack(records.get(1));
+
+        assertEquals(1L, tracker.committable().get(PARTITION).offset(), "Commit should stop at the refused record.");
+    }
+
+    @Test
+    void testCompletionAfterRevokeIsIgnored() {
+        OffsetTracker tracker = new OffsetTracker();
+        List<ConsumerRecord<String, byte[]>> records = records(2);
+        Runnable staleCompletion = tracker.track(records.get(0));
+
+        // Partition revoked and assigned again, the same offset is delivered again
+        tracker.remove(List.of(PARTITION));
+        tracker.track(records.get(0));
+        staleCompletion.run();
+
+        assertEquals(0L, tracker.committable().get(PARTITION).offset(), "A stale completion should not release the redelivered record.");
+    }
+}
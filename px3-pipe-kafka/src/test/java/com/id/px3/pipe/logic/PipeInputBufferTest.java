@@ -1,14 +1,29 @@
 package com.id.px3.pipe.logic;
 
+import com.id.px3.pipe.codec.BinaryPipeCodec;
+import com.id.px3.pipe.model.LazyPipePacket;
 import com.id.px3.pipe.model.PipePacket;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -114,4 +129,225 @@ class PipeInputBufferTest {
         assertEquals(0, buffer.getPacketCount(), "Buffer should be empty after removing a packet.");
         assertEquals(0, buffer.getTotalPacketSize(), "Total packet size should be 0 after removing a packet.");
     }
+
+    @Test
+    void testTotalSizeFollowsPushAndRemove() {
+        // Push well over the size limit, oldest packets are evicted as new ones come in
+        Map<String, Object> payload = Map.of("data", "x".repeat(10_000));
+        String lastPackId = null;
+        for (int i = 0; i < 500; i++) {
+            lastPackId = UUID.randomUUID().toString();
+            buffer.push(new PipePacket(lastPackId, UUID.randomUUID().toString(), "compute",
+                    Instant.now().plusNanos(i), "sender", "recipient", payload));
+        }
+
+        long sizeLimit = 1024 * 1024;
+        assertTrue(buffer.getTotalPacketSize() <= sizeLimit, "Total packet size should stay within the limit.");
+        assertTrue(buffer.getPacketCount() < 500, "Oldest packets should have been evicted.");
+        assertNotNull(buffer.peekByPackId(lastPackId), "Newest packet should be kept.");
+
+        // Size of a single packet is given back when it is removed
+        long sizeBefore = buffer.getTotalPacketSize();
+        int countBefore = buffer.getPacketCount();
+        buffer.removeByPackId(lastPackId);
+        assertEquals(countBefore - 1, buffer.getPacketCount());
+        assertEquals(sizeBefore / countBefore * (countBefore - 1), buffer.getTotalPacketSize(),
+                "Total packet size should drop by the size of the removed packet.");
+    }
+
+    @Test
+    void testConcurrentPushPeekAndRemove() throws Exception {
+        int threads = 8;
+        int packetsPerThread = 5_000;
+        AtomicInteger found = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Every thread pushes its packets, looks them up by reqId and removes them
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < packetsPerThread; i++) {
+                        String packId = UUID.randomUUID().toString();
+                        String reqId = UUID.randomUUID().toString();
+                        buffer.push(new PipePacket(packId, reqId, "compute", Instant.now(), "sender", "recipient", Map.of("i", i)));
+                        if (buffer.peekByReqId(reqId) != null) {
+                            found.incrementAndGet();
+                        }
+                        buffer.removeByPackId(packId);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * packetsPerThread, found.get(), "Every pushed packet should be found by its reqId.");
+        assertEquals(0, buffer.getPacketCount(), "Buffer should be empty after removing all packets.");
+        assertEquals(0, buffer.getTotalPacketSize(), "Total packet size should be 0 after removing all packets.");
+    }
+
+    @Test
+    void testPacketsSharingTimestamp() {
+        Instant ts = Instant.now().minus(Duration.ofMinutes(10));
+        List<String> reqIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String reqId = UUID.randomUUID().toString();
+            reqIds.add(reqId);
+            buffer.push(new PipePacket(UUID.randomUUID().toString(), reqId, "compute", ts, "sender", "recipient", new HashMap<>()));
+        }
+
+        // All the packets with the same timestamp are aged out, none is left behind
+        buffer.removeExpiredPackets();
+        reqIds.forEach(reqId -> assertNull(buffer.peekByReqId(reqId), "Expired packet should be removed from buffer."));
+        assertEquals(0, buffer.getPacketCount(), "Buffer should be empty after removing expired packets.");
+        assertEquals(0, buffer.getTotalPacketSize(), "Total packet size should be 0 after removing packets.");
+        assertEquals(0, buffer.getIndexSize(), "Index should be empty after removing packets.");
+    }
+
+    @Test
+    void testMemoryStaysBoundedUnderHighRate() throws InterruptedException {
+        PipeInputBuffer stressBuffer = new PipeInputBuffer(Duration.ofMillis(200), 1);
+        int packetsPerSecond = 100_000;
+        int seconds = 3;
+        int packetsPerMs = packetsPerSecond / 1000;
+        Map<String, Object> payload = Map.of("data", "x".repeat(100));
+
+        // 100k packets/s, every millisecond batch shares the same timestamp, half of the packets are consumed
+        long start = System.nanoTime();
+        int maxCount = 0;
+        int maxIndexSize = 0;
+        for (int ms = 0; ms < seconds * 1000; ms++) {
+            Instant ts = Instant.now();
+            for (int i = 0; i < packetsPerMs; i++) {
+                String packId = UUID.randomUUID().toString();
+                stressBuffer.push(new PipePacket(packId, UUID.randomUUID().toString(), "compute", ts, "sender", "recipient", payload));
+                if (i % 2 == 0) {
+                    stressBuffer.removeByPackId(packId);
+                }
+            }
+            maxCount = Math.max(maxCount, stressBuffer.getPacketCount());
+            maxIndexSize = Math.max(maxIndexSize, stressBuffer.getIndexSize());
+            assertTrue(stressBuffer.getTotalPacketSize() <= 1024 * 1024, "Total packet size should stay within the limit.");
+
+            // Pace the producer
+            long ahead = start + (ms + 1) * 1_000_000L - System.nanoTime();
+            if (ahead > 0) {
+                Thread.sleep(ahead / 1_000_000, (int) (ahead % 1_000_000));
+            }
+        }
+
+        // Live packets are bounded by the age limit, index entries by the live packets
+        int maxLive = packetsPerSecond / 2;
+        assertTrue(maxCount <= maxLive, "Packet count should be bounded by the age limit, was %d".formatted(maxCount));
+        assertTrue(maxIndexSize <= 2 * maxLive + 1024 + packetsPerMs, "Index size should be bounded, was %d".formatted(maxIndexSize));
+
+        // Everything is aged out once the producer stops
+        Thread.sleep(300);
+        stressBuffer.removeExpiredPackets();
+        assertEquals(0, stressBuffer.getPacketCount(), "Buffer should be empty after the age limit.");
+        assertEquals(0, stressBuffer.getTotalPacketSize(), "Total packet size should be 0 after the age limit.");
+    }
+
+    @Test
+    void testOffHeapPushAndRetrieve() {
+        PipeInputBuffer offHeapBuffer = new PipeInputBuffer(Duration.ofMinutes(5), 1, true);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("string", "hello");
+        payload.put("long", 42L);
+        payload.put("nested", Map.of("list", List.of("a", "b")));
+        PipePacket packet = new PipePacket(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "compute",
+                Instant.now(), "sender", "recipient", payload);
+        packet.setDl(Instant.now().plusSeconds(30));
+
+        offHeapBuffer.push(packet);
+        assertTrue(offHeapBuffer.getOffHeapSize() > 0, "Packet should be stored off-heap.");
+
+        // Packet is decoded back on lookup, the payload only when accessed
+        PipePacket retrievedPacket = offHeapBuffer.peekByReqId(packet.getReqId());
+        assertInstanceOf(LazyPipePacket.class, retrievedPacket);
+        assertFalse(((LazyPipePacket) retrievedPacket).isMaterialized(), "Payload should not be decoded on lookup.");
+        assertEquals(packet.getDl(), retrievedPacket.getDl(), "Deadline should be stored with the packet.");
+        assertEquals(packet, retrievedPacket, "Retrieved packet should be equal to the one pushed.");
+
+        // Removal gives back the packet and its size
+        assertEquals(packet, offHeapBuffer.removeByPackId(packet.getPackId()));
+        assertNull(offHeapBuffer.peekByPackId(packet.getPackId()), "Packet should be null after removal.");
+        assertEquals(0, offHeapBuffer.getPacketCount(), "Buffer should be empty after removing a packet.");
+        assertEquals(0, offHeapBuffer.getTotalPacketSize(), "Total packet size should be 0 after removing a packet.");
+    }
+
+    @Test
+    void testOffHeapKeepsReceivedBytes() {
+        PipeInputBuffer offHeapBuffer = new PipeInputBuffer(Duration.ofMinutes(5), 1, true);
+        PipePacketSerde serde = new PipePacketSerde(new BinaryPipeCodec());
+        PipePacket packet = new PipePacket(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "compute",
+                Instant.now(), "sender", "recipient", Map.of("value", "received"));
+        packet.setDl(Instant.now().plusSeconds(30));
+        LazyPipePacket received = (LazyPipePacket) serde.fromRecord(new ConsumerRecord<>("topic", 0, 0L, 0L,
+                TimestampType.CREATE_TIME, -1, -1, null, serde.toBody(packet), new RecordHeaders(serde.toHeaders(packet)), Optional.empty()));
+
+        // Received packet is stored without decoding its payload
+        offHeapBuffer.push(received);
+        assertFalse(received.isMaterialized(), "Received payload should not be decoded when stored.");
+        assertEquals(packet, offHeapBuffer.peekByPackId(packet.getPackId()));
+    }
+
+    @Test
+    void testOffHeapReadsWhileSlabsAreRecycled() throws Exception {
+        PipeInputBuffer offHeapBuffer = new PipeInputBuffer(Duration.ofMinutes(5), 1, true);
+        int packetCount = 20_000;
+        int readers = 3;
+        AtomicInteger written = new AtomicInteger();
+        AtomicInteger found = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        try {
+            // Writer evicts the oldest packets, their slabs are recycled while the readers copy them
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < packetCount; i++) {
+                    offHeapBuffer.push(new PipePacket(UUID.randomUUID().toString(), "req-" + i, "compute", Instant.now(),
+                            "sender", "recipient", Map.of("i", i, "data", "x".repeat(200))));
+                    written.set(i);
+                }
+            }));
+            for (int t = 0; t < readers; t++) {
+                futures.add(executor.submit(() -> {
+                    while (written.get() < packetCount - 1) {
+                        int i = Math.max(0, written.get() - ThreadLocalRandom.current().nextInt(5_000));
+                        PipePacket packet = offHeapBuffer.peekByReqId("req-" + i);
+                        // Gone is fine, a packet must never be read from reused memory
+                        if (packet != null) {
+                            assertEquals("req-" + i, packet.getReqId());
+                            assertEquals(i, ((Number) packet.getPayload().get("i")).intValue(), "Packet should not be corrupted.");
+                            found.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(found.get() > 0, "Readers should find packets still buffered.");
+    }
+
+    @Test
+    void testOffHeapMemoryIsReused() {
+        PipeInputBuffer offHeapBuffer = new PipeInputBuffer(Duration.ofMinutes(5), 1, true);
+        Map<String, Object> payload = Map.of("data", "x".repeat(1_000));
+
+        // Push well over the size limit, evicted packets give back their slabs
+        for (int i = 0; i < 10_000; i++) {
+            offHeapBuffer.push(new PipePacket(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "compute",
+                    Instant.now(), "sender", "recipient", payload));
+        }
+        assertTrue(offHeapBuffer.getTotalPacketSize() <= 1024 * 1024, "Total packet size should stay within the limit.");
+        assertTrue(offHeapBuffer.getOffHeapSize() <= 2 * 1024 * 1024, "Off-heap memory should stay bounded, was %d".formatted(offHeapBuffer.getOffHeapSize()));
+    }
 }
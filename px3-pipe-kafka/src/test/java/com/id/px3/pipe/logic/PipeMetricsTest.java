@@ -0,0 +1,57 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.model.PipeRpcResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipeMetricsTest {
+
+    @Test
+    void testTimersAreTaggedByTopicAndOutcome() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipeMetrics metrics = new PipeMetrics(registry);
+
+        long start = System.nanoTime();
+        metrics.recordSend("topic-a", start, null);
+        metrics.recordSend("topic-a", start, null);
+        metrics.recordSend("topic-a", start, new IllegalStateException("failed"));
+        metrics.recordRpcCall("compute", start, PipeMetrics.OUTCOME_TIMEOUT);
+
+        assertEquals(2, registry.get("px3.pipe.send").tags("topic", "topic-a", "outcome", "ok").timer().count());
+        assertEquals(1, registry.get("px3.pipe.send").tags("topic", "topic-a", "outcome", "error").timer().count());
+        assertEquals(1, registry.get("px3.rpc.client.calls").tags("func", "compute", "outcome", "timeout").timer().count());
+    }
+
+    @Test
+    void testBufferAndCacheGauges() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PipeMetrics metrics = new PipeMetrics(registry);
+
+        // Buffer small enough to evict
+        PipeInputBuffer buffer = new PipeInputBuffer(Duration.ofMinutes(5), 1);
+        metrics.monitorBuffer("test", buffer);
+        String payload = "x".repeat(100_000);
+        for (int i = 0; i < 20; i++) {
+            buffer.push(new PipePacket("pack-" + i, "req-" + i, "func", Instant.now(), "sndr", "rcpt", Map.of("data", payload)));
+        }
+        assertEquals(buffer.getPacketCount().doubleValue(), registry.get("px3.pipe.buffer.packets").gauge().value());
+        assertEquals(buffer.getTotalPacketSize().doubleValue(), registry.get("px3.pipe.buffer.size").gauge().value());
+        assertTrue(registry.get("px3.pipe.buffer.evictions").functionCounter().count() > 0, "Evictions should be counted.");
+
+        RpcResultCache cache = new RpcResultCache(Duration.ofMinutes(1), 100);
+        metrics.monitorResultCache(cache);
+        cache.putIfAbsent("req", new CompletableFuture<PipeRpcResult>());
+        cache.putIfAbsent("req", new CompletableFuture<PipeRpcResult>());
+        assertEquals(1, registry.get("px3.rpc.server.dedup.hits").functionCounter().count());
+        assertEquals(1, registry.get("px3.rpc.server.dedup.misses").functionCounter().count());
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.codec.BinaryPipeCodec;
+import com.id.px3.pipe.codec.GsonPipeCodec;
+import com.id.px3.pipe.model.LazyPipePacket;
+import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.utils.json.JsonUtils;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipePacketSerdeTest {
+
+    private static ConsumerRecord<String, byte[]> toRecord(PipePacketSerde serde, PipePacket packet) {
+        return new ConsumerRecord<>("topic", 0, 0L, 0L, TimestampType.CREATE_TIME, -1, -1,
+                null, serde.toBody(packet), new RecordHeaders(serde.toHeaders(packet)), Optional.empty());
+    }
+
+    private static PipePacket newPacket(Map<String, Object> payload) {
+        return new PipePacket(UUID.randomUUID().toString(), UUID.randomUUID().toString(), "compute",
+                Instant.now(), "sender", "recipient", payload);
+    }
+
+    @Test
+    void testBinaryRoundTrip() {
+        PipePacketSerde serde = new PipePacketSerde(new BinaryPipeCodec());
+
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("list", List.of(1, 2L, "three"));
+        nested.put("flag", true);
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("string", "hello");
+        payload.put("int", 42);
+        payload.put("long", -1234567890123L);
+        payload.put("double", 3.14);
+        payload.put("null", null);
+        payload.put("instant", Instant.ofEpochSecond(1700000000L, 123456789));
+        payload.put("nested", nested);
+        PipePacket packet = newPacket(payload);
+
+        PipePacket decoded = serde.fromRecord(toRecord(serde, packet));
+
+        // Header fields and payload types survive the round trip
+        assertEquals(packet, decoded, "Decoded packet should be equal to the original one.");
+    }
+
+    @Test
+    void testLazyPayloadAccess() {
+        PipePacketSerde serde = new PipePacketSerde(new BinaryPipeCodec());
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("first", Map.of("inner", List.of("a", "b")));
+        payload.put("second", 2.5);
+        payload.put("third", "value");
+        PipePacket packet = newPacket(payload);
+
+        PipePacket decoded = serde.fromRecord(toRecord(serde, packet));
+        assertInstanceOf(LazyPipePacket.class, decoded, "Packets with a codec should be decoded lazily.");
+        LazyPipePacket lazy = (LazyPipePacket) decoded;
+
+        // Header fields and single values do not materialize the payload
+        assertEquals(packet.getFunc(), lazy.getFunc(), "Function name should match.");
+        assertEquals(packet.getReqId(), lazy.getReqId(), "Request ID should match.");
+        assertEquals("value", lazy.getPayloadValue("third"), "Single value should be extracted.");
+        assertEquals(2.5, lazy.getPayloadValue("second"), "Single value should be extracted.");
+        assertNull(lazy.getPayloadValue("missing"), "Missing key should give null.");
+        assertFalse(lazy.isMaterialized(), "Payload should not be materialized yet.");
+        assertTrue(lazy.getEncodedSize() > 0, "Encoded size should be known.");
+
+        // First access to the payload materializes it
+        assertEquals(payload, lazy.getPayload(), "Payload should match.");
+        assertTrue(lazy.isMaterialized(), "Payload should be materialized.");
+        assertEquals("value", lazy.getPayloadValue("third"), "Single value should still be available.");
+    }
+
+    @Test
+    void testGsonRoundTrip() {
+        PipePacketSerde serde = new PipePacketSerde(new GsonPipeCodec());
+        PipePacket packet = newPacket(Map.of("data", "123"));
+
+        PipePacket decoded = serde.fromRecord(toRecord(serde, packet));
+
+        assertEquals(packet.getPackId(), decoded.getPackId(), "Packet ID should match.");
+        assertEquals(packet.getReqId(), decoded.getReqId(), "Request ID should match.");
+        // Legacy JSON keeps milliseconds
+        assertEquals(packet.getTs().toEpochMilli(), decoded.getTs().toEpochMilli(), "Timestamp should match.");
+        assertEquals("123", decoded.getPayload().get("data"), "Payload should match.");
+    }
+
+    @Test
+    void testGsonWritesLegacyJsonPacket() {
+        PipePacketSerde serde = new PipePacketSerde(new GsonPipeCodec());
+        PipePacket packet = newPacket(Map.of("data", "123"));
+        packet.setDl(Instant.ofEpochMilli(System.currentTimeMillis() + 30000));
+
+        // Readers that predate the codecs parse the whole record value as a packet
+        PipePacket decoded = JsonUtils.newGson().fromJson(new String(serde.toBody(packet), StandardCharsets.UTF_8), PipePacket.class);
+
+        assertTrue(serde.toHeaders(packet).stream().noneMatch(h -> h.key().equals(PipePacketSerde.HEADER_CODEC)),
+                "Legacy packets should have no codec header.");
+        assertEquals(packet.getPackId(), decoded.getPackId(), "Packet ID should match.");
+        assertEquals(packet.getFunc(), decoded.getFunc(), "Function name should match.");
+        assertEquals(packet.getSndr(), decoded.getSndr(), "Sender should match.");
+        assertEquals(packet.getRcpt(), decoded.getRcpt(), "Recipient should match.");
+        assertEquals(packet.getDl(), decoded.getDl(), "Deadline should match.");
+        assertEquals("123", decoded.getPayload().get("data"), "Payload should match.");
+    }
+
+    @Test
+    void testReaderNegotiatesCodec() {
+        // A reader configured with one codec reads packets written with another one
+        PipePacketSerde gsonSerde = new PipePacketSerde(new GsonPipeCodec());
+        PipePacketSerde binarySerde = new PipePacketSerde(new BinaryPipeCodec());
+        PipePacket packet = newPacket(Map.of("data", "123"));
+
+        PipePacket decoded = binarySerde.fromRecord(toRecord(gsonSerde, packet));
+
+        assertEquals("123", decoded.getPayload().get("data"), "Payload should match.");
+    }
+
+    @Test
+    void testLegacyJsonPacket() {
+        PipePacketSerde serde = new PipePacketSerde(new BinaryPipeCodec());
+        PipePacket packet = newPacket(Map.of("data", "123"));
+        byte[] json = JsonUtils.newGson().toJson(packet).getBytes(StandardCharsets.UTF_8);
+
+        PipePacket decoded = serde.fromRecord(new ConsumerRecord<>("topic", 0, 0L, null, json));
+
+        assertEquals(packet.getPackId(), decoded.getPackId(), "Packet ID should match.");
+        assertEquals("123", decoded.getPayload().get("data"), "Payload should match.");
+    }
+
+    @Test
+    void testDeadlineRoundTrip() {
+        PipePacketSerde serde = new PipePacketSerde(new BinaryPipeCodec());
+        PipePacket packet = newPacket(Map.of("data", "123"));
+        packet.setDl(Instant.now().minusSeconds(1));
+
+        PipePacket decoded = serde.fromRecord(toRecord(serde, packet));
+
+        assertEquals(packet.getDl(), decoded.getDl(), "Deadline should match.");
+        assertTrue(decoded.isExpired(), "Packet past its deadline should be expired.");
+        assertFalse(newPacket(Map.of()).isExpired(), "Packet without deadline should never expire.");
+    }
+}
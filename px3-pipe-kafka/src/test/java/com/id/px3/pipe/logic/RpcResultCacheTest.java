@@ -0,0 +1,73 @@
+package com.id.px3.pipe.logic;
+
+import com.id.px3.pipe.model.PipeRpcResult;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RpcResultCacheTest {
+
+    @Test
+    void testDuplicateJoinsFirstExecution() {
+        RpcResultCache cache = new RpcResultCache(Duration.ofMinutes(1), 100);
+        CompletableFuture<PipeRpcResult> first = new CompletableFuture<>();
+
+        // First request is executed, the retry gets the same result
+        assertNull(cache.putIfAbsent("req", first), "A new request should be executed.");
+        CompletableFuture<PipeRpcResult> retry = cache.putIfAbsent("req", new CompletableFuture<>());
+        assertSame(first, retry, "A retried request should join the first execution.");
+
+        first.complete(PipeRpcResult.ok(Map.of("value", 1)));
+        assertEquals(1, retry.join().get("value"));
+        assertEquals(1, cache.getHits(), "The retry should be counted as a hit.");
+        assertEquals(1, cache.getMisses(), "The first request should be counted as a miss.");
+    }
+
+    @Test
+    void testExpiredResultIsExecutedAgain() throws InterruptedException {
+        RpcResultCache cache = new RpcResultCache(Duration.ofMillis(50), 100);
+        assertNull(cache.putIfAbsent("req", CompletableFuture.completedFuture(PipeRpcResult.ok(Map.of()))));
+
+        Thread.sleep(100);
+
+        // Request seen after the TTL runs again
+        assertNull(cache.putIfAbsent("req", new CompletableFuture<>()), "An expired request should be executed again.");
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.getSize(), "The expired result should have been replaced.");
+    }
+
+    @Test
+    void testRetryWithinDeadlineIsAnsweredAfterTtl() throws InterruptedException {
+        RpcResultCache cache = new RpcResultCache(Duration.ofMillis(50), 100);
+        CompletableFuture<PipeRpcResult> first = CompletableFuture.completedFuture(PipeRpcResult.ok(Map.of()));
+        Instant deadline = Instant.now().plusSeconds(5);
+        assertNull(cache.putIfAbsent("req", first, deadline));
+
+        Thread.sleep(100);
+
+        // Past the TTL, but the caller is still retrying until its deadline
+        assertSame(first, cache.putIfAbsent("req", new CompletableFuture<>(), deadline), "A retry before the deadline should not run again.");
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        RpcResultCache cache = new RpcResultCache(Duration.ofMinutes(1), 100);
+        for (int i = 0; i < 1_000; i++) {
+            cache.putIfAbsent("req-" + i, new CompletableFuture<>());
+        }
+
+        // Oldest results are evicted first
+        assertEquals(100, cache.getSize(), "Cache should not grow over its max size.");
+        assertNull(cache.putIfAbsent("req-0", new CompletableFuture<>()), "Oldest request should have been evicted.");
+        assertNotNull(cache.putIfAbsent("req-999", new CompletableFuture<>()), "Newest request should still be cached.");
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.id.px3.pipe.service;
+
+import com.id.px3.pipe.logic.PipeMetrics;
+import com.id.px3.pipe.model.PipePacket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PipeRpcClientTest {
+
+    @Test
+    void testBlockedRetryDoesNotDelayOtherTimeouts() throws Exception {
+        PipeService pipeService = mock(PipeService.class);
+        when(pipeService.getMetrics()).thenReturn(new PipeMetrics(new SimpleMeterRegistry()));
+        CountDownLatch producerBlocked = new CountDownLatch(1);
+        AtomicInteger blockedSends = new AtomicInteger();
+        AtomicInteger freeSends = new AtomicInteger();
+        when(pipeService.send(anyString(), anyString(), anyMap(), anyString(), anyString(), any())).thenAnswer(invocation -> {
+            if ("blockedCaller-rpc".equals(invocation.getArgument(0))) {
+                // Retries of this caller block in the producer, as when waiting for metadata up to max.block.ms
+                if (blockedSends.incrementAndGet() > 1) {
+                    producerBlocked.await();
+                }
+            } else {
+                freeSends.incrementAndGet();
+            }
+            return new PipePacket();
+        });
+
+        PipeRpcClient client = new PipeRpcClient(pipeService, "200ms", 3);
+        try {
+            CompletableFuture<PipePacket> blocked = client.call("blockedCaller", "compute", Map.of());
+            CompletableFuture<PipePacket> free = client.call("freeCaller", "compute", Map.of());
+
+            // The timeouts of the other call keep firing while a retry is stuck
+            ExecutionException e = assertThrows(ExecutionException.class, () -> free.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+            assertEquals(3, freeSends.get(), "Every attempt of the other call should be sent.");
+            assertFalse(blocked.isDone(), "The blocked call should still be waiting for its send.");
+        } finally {
+            producerBlocked.countDown();
+            client.close();
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.id.px3.pipe.service;
+
+import com.id.px3.pipe.config.PipeServeOptions;
+import com.id.px3.pipe.logic.PipeMetrics;
+import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.model.PipeRpcResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PipeRpcServerTest {
+
+    private static final String TIMER_THREAD = "px3-rpc-server-timeouts";
+
+    private PipeService pipeService;
+    private PipeRpcServer server;
+    // Thread each reply was sent on
+    private final BlockingQueue<String> replyThreads = new LinkedBlockingQueue<>();
+
+    @BeforeEach
+    void setUp() {
+        pipeService = mock(PipeService.class);
+        when(pipeService.getMetrics()).thenReturn(new PipeMetrics(new SimpleMeterRegistry()));
+        when(pipeService.send(anyString(), anyString(), anyMap(), anyString(), anyString())).thenAnswer(invocation -> {
+            replyThreads.add(Thread.currentThread().getName());
+            return new PipePacket();
+        });
+        server = new PipeRpcServer(pipeService, 8, "120s", 10_000, "60s");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Consumer<PipePacket> serve(String funcName, long handlerMs, Duration timeout) {
+        server.serve(funcName, packet -> {
+            try {
+                Thread.sleep(handlerMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return PipeRpcResult.ok(Map.of());
+        }, PipeServeOptions.builder().timeout(timeout).build());
+        ArgumentCaptor<Consumer<PipePacket>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(pipeService).registerReader(eq(funcName + "-rpc"), eq(funcName + "-rpc"), listener.capture(), any());
+        return listener.getValue();
+    }
+
+    private static PipePacket request(String funcName, String reqId) {
+        return new PipePacket(UUID.randomUUID().toString(), reqId, funcName, Instant.now(),
+                "caller-rpc", funcName + "-rpc", Map.of());
+    }
+
+    @Test
+    void testTimedOutReplyIsNotSentOnTheTimer() throws Exception {
+        Consumer<PipePacket> listener = serve("slow", 1000, Duration.ofMillis(100));
+
+        // The listener runs the handler, the timer completes the result first
+        Thread.ofPlatform().start(() -> listener.accept(request("slow", "req-1")));
+
+        String replyThread = replyThreads.poll(5, TimeUnit.SECONDS);
+        assertNotNull(replyThread, "The timeout error should be sent.");
+        assertNotEquals(TIMER_THREAD, replyThread, "A reply blocked on the producer must not hold the timer.");
+    }
+
+    @Test
+    void testDuplicateReplyIsNotSentOnTheTimer() throws Exception {
+        Consumer<PipePacket> listener = serve("slowOnce", 1000, Duration.ofMillis(300));
+
+        // A retry arrives while the first execution is running, both are answered when the timer completes it
+        Thread.ofPlatform().start(() -> listener.accept(request("slowOnce", "req-1")));
+        Thread.sleep(100);
+        listener.accept(request("slowOnce", "req-1"));
+
+        for (int i = 0; i < 2; i++) {
+            String replyThread = replyThreads.poll(5, TimeUnit.SECONDS);
+            assertNotNull(replyThread, "The first request and its retry should both be answered.");
+            assertNotEquals(TIMER_THREAD, replyThread, "A duplicate reply must not be sent on the timer.");
+        }
+        assertEquals(1, server.getResultCache().getHits(), "The retry should join the first execution.");
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.id.px3.pipe.service;
 
+import com.id.px3.pipe.config.PipeServeOptions;
 import com.id.px3.pipe.config.TestConfig;
 import com.id.px3.pipe.model.PipePacket;
 import com.id.px3.pipe.model.PipeRpcResult;
@@ -19,8 +20,13 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -185,4 +191,238 @@ public class PipeRpcTest {
         executor.shutdownNow();
     }
 
+    @Test
+    @Order(4)
+    public void testBatchCall() throws Exception {
+        // Setup the function name and server to handle the function
+        String funcName = "computeBatch";
+        pipeRpcServer.serve(funcName, packet -> {
+            Map<String, Object> params = packet.getPayload();
+            return PipeRpcResult.ok(Map.of("processed", params.get("data")));
+        });
+
+        // Create the parameters for each call in the batch
+        int batchSize = 100;
+        List<Map<String, Object>> paramsList = new ArrayList<>();
+        for (int i = 0; i < batchSize; i++) {
+            paramsList.add(Map.of("data", "Data-" + i));
+        }
+
+        // Perform the batched call
+        List<CompletableFuture<PipePacket>> futures = pipeRpcClient.callBatch("batchCaller", funcName, paramsList);
+        assertEquals(batchSize, futures.size(), "There should be one future per call in the batch.");
+
+        // Validate every response, in order
+        for (int i = 0; i < batchSize; i++) {
+            PipePacket responsePacket = futures.get(i).get(30, TimeUnit.SECONDS);
+            assertNotNull(responsePacket, "The response packet should not be null.");
+            assertEquals("Data-" + i, responsePacket.getPayload().get("processed"), "The response should match the call at the same position.");
+            assertEquals(true, responsePacket.getPayload().get(PipeRpcResult.RPC_OK), "Each call should succeed.");
+        }
+    }
+
+    @Test
+    @Order(5)
+    public void testConcurrencyLimitAndTimeout() throws Exception {
+        String funcName = "computeLimited";
+        int maxConcurrency = 2;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        pipeRpcServer.serve(funcName, packet -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep("slow".equals(packet.getPayload().get("data")) ? 2000 : 100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return PipeRpcResult.ok(Map.of("processed", packet.getPayload().get("data")));
+        }, PipeServeOptions.bounded(maxConcurrency, 100, Duration.ofSeconds(1)));
+
+        // A call running over the timeout is answered with an error
+        PipePacket timedOut = pipeRpcClient.call("limitedCaller", funcName, Map.of("data", "slow")).get(30, TimeUnit.SECONDS);
+        assertEquals(false, timedOut.getPayload().get(PipeRpcResult.RPC_OK), "A call over the timeout should fail.");
+        assertNotNull(timedOut.getPayload().get(PipeRpcResult.RPC_ERROR), "A call over the timeout should carry an error.");
+
+        // Calls are all answered, never more than the limit at once
+        List<CompletableFuture<PipePacket>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(pipeRpcClient.call("limitedCaller", funcName, Map.of("data", "Data-" + i)));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals("Data-" + i, futures.get(i).get(30, TimeUnit.SECONDS).getPayload().get("processed"));
+        }
+        assertTrue(maxRunning.get() <= maxConcurrency, "No more than %d calls should run at once".formatted(maxConcurrency));
+    }
+
+    @Test
+    @Order(6)
+    public void testRetriesAreNotExecutedAgain() throws Exception {
+        String funcName = "computeOnce";
+        AtomicInteger executions = new AtomicInteger();
+
+        // Handler slower than the client timeout, every retry reaches the server while it is still running
+        pipeRpcServer.serve(funcName, packet -> {
+            executions.incrementAndGet();
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return PipeRpcResult.ok(Map.of("processed", packet.getPayload().get("data")));
+        });
+
+        long hitsBefore = pipeRpcServer.getResultCache().getHits();
+        pipeRpcClient.setRpcTimeout(Duration.ofSeconds(1));
+        try {
+            PipePacket responsePacket = pipeRpcClient.call("onceCaller", funcName, Map.of("data", "123")).get(30, TimeUnit.SECONDS);
+            assertEquals("123", responsePacket.getPayload().get("processed"), "The response content should match the processed result.");
+        } finally {
+            pipeRpcClient.setRpcTimeout(Duration.ofSeconds(3));
+        }
+
+        assertEquals(1, executions.get(), "The handler should run once whatever the number of retries.");
+        assertTrue(pipeRpcServer.getResultCache().getHits() > hitsBefore, "Retries should be answered from the cache.");
+    }
+
+    @Test
+    @Order(7)
+    public void testExpiredRequestsAreDropped() throws Exception {
+        String funcName = "computeExpired";
+        AtomicInteger executions = new AtomicInteger();
+        pipeRpcServer.serve(funcName, packet -> {
+            executions.incrementAndGet();
+            return PipeRpcResult.ok(Map.of("processed", packet.getPayload().get("data")));
+        });
+
+        // A live call makes sure the function reader is up
+        PipePacket responsePacket = pipeRpcClient.call("expiredCaller", funcName, Map.of("data", "live")).get(30, TimeUnit.SECONDS);
+        assertEquals("live", responsePacket.getPayload().get("processed"));
+
+        // A request past its deadline never reaches the handler
+        long expiredBefore = pipeRpcServer.getExpiredRequestCount();
+        pipeService.send("expiredCaller-rpc", funcName + "-rpc", Map.of("data", "expired"), funcName,
+                "expired-request", Instant.now().minusSeconds(1));
+        long waitUntil = System.currentTimeMillis() + 30_000;
+        while (pipeRpcServer.getExpiredRequestCount() == expiredBefore && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(100);
+        }
+
+        assertEquals(expiredBefore + 1, pipeRpcServer.getExpiredRequestCount(), "The expired request should be counted.");
+        assertEquals(1, executions.get(), "The expired request should not be executed.");
+    }
+
+    @Test
+    @Order(8)
+    public void testStreamedResponseWithBackpressure() throws Exception {
+        String funcName = "computeStream";
+        int chunkCount = 1000;
+        AtomicInteger emitted = new AtomicInteger();
+        pipeRpcServer.serveStream(funcName, (packet, sink) -> {
+            int count = ((Number) packet.getPayload().get("count")).intValue();
+            for (int i = 0; i < count; i++) {
+                sink.next(Map.of("index", i));
+                emitted.incrementAndGet();
+            }
+        }, PipeServeOptions.defaults());
+
+        // Request 10 chunks and pause, the server must not run ahead of the granted credit
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        CountDownLatch firstChunks = new CountDownLatch(10);
+        CompletableFuture<Void> completed = new CompletableFuture<>();
+        AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        pipeRpcClient.callStream("streamCaller", funcName, Map.of("count", chunkCount)).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.set(s);
+                s.request(10);
+            }
+
+            @Override
+            public void onNext(PipePacket item) {
+                received.add(((Number) item.getPayload().get("index")).intValue());
+                firstChunks.countDown();
+                // Past the first chunks, keep 50 chunks requested at a time
+                if (received.size() > 10 && received.size() % 50 == 0) {
+                    subscription.get().request(50);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                completed.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                completed.complete(null);
+            }
+        });
+
+        assertTrue(firstChunks.await(30, TimeUnit.SECONDS), "The first chunks should be received.");
+        Thread.sleep(1000);
+        assertEquals(10, emitted.get(), "The server should wait for credit before emitting more chunks.");
+        assertEquals(10, received.size());
+
+        // Resume and drain the stream
+        subscription.get().request(50);
+        completed.get(60, TimeUnit.SECONDS);
+
+        assertEquals(chunkCount, received.size(), "All the chunks should be received.");
+        for (int i = 0; i < chunkCount; i++) {
+            assertEquals(i, received.get(i), "Chunks should be received in order.");
+        }
+    }
+
+    @Test
+    @Order(9)
+    public void testBatchesRunWithinTheirFunctionLimits() throws Exception {
+        String slowFunc = "computeSlowBatch";
+        String fastFunc = "computeFastBatch";
+        int maxConcurrency = 2;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        pipeRpcServer.serve(slowFunc, packet -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(400);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            return PipeRpcResult.ok(Map.of("processed", packet.getPayload().get("data")));
+        }, PipeServeOptions.bounded(maxConcurrency, 100, null));
+        pipeRpcServer.serve(fastFunc, packet -> PipeRpcResult.ok(Map.of("processed", packet.getPayload().get("data"))));
+
+        // A live call makes sure the fast function reader is up
+        pipeRpcClient.call("fastCaller", fastFunc, Map.of("data", "live")).get(30, TimeUnit.SECONDS);
+
+        List<Map<String, Object>> params = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            params.add(Map.of("data", "Data-" + i));
+        }
+        List<CompletableFuture<PipePacket>> slowFutures = pipeRpcClient.callBatch("slowCaller", slowFunc, params);
+        long waitUntil = System.currentTimeMillis() + 30_000;
+        while (running.get() == 0 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(10);
+        }
+
+        // The batch of another function is not queued behind the slow one
+        List<CompletableFuture<PipePacket>> fastFutures = pipeRpcClient.callBatch("fastCaller", fastFunc, params);
+        for (int i = 0; i < fastFutures.size(); i++) {
+            assertEquals("Data-" + i, fastFutures.get(i).get(30, TimeUnit.SECONDS).getPayload().get("processed"));
+        }
+        assertFalse(slowFutures.get(0).isDone(), "The fast batch should complete while the slow one is still running.");
+
+        // Batch items never run past the limit of their function
+        for (int i = 0; i < slowFutures.size(); i++) {
+            assertEquals("Data-" + i, slowFutures.get(i).get(30, TimeUnit.SECONDS).getPayload().get("processed"));
+        }
+        assertTrue(maxRunning.get() <= maxConcurrency, "No more than %d batch items should run at once".formatted(maxConcurrency));
+    }
+
 }
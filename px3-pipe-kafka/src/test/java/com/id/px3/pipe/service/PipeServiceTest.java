@@ -2,8 +2,10 @@ package com.id.px3.pipe.service;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.id.px3.pipe.config.PipeReaderOptions;
 import com.id.px3.pipe.config.TestConfig;
 import com.id.px3.pipe.model.PipePacket;
+import com.id.px3.pipe.model.PipeSendResult;
 import com.id.px3.utils.SafeConvert;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.AfterEach;
@@ -21,10 +23,15 @@ import org.testcontainers.junit.jupiter.Testcontainers;
 import org.testcontainers.utility.DockerImageName;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootTest(classes = PipeService.class)
 @EnableAutoConfiguration
@@ -125,4 +132,167 @@ public class PipeServiceTest {
         assertTrue(awaitResult, "Not all messages were processed within 60 seconds");
         System.out.println("Average latency: " + averageLatency + " ms");
     }
+
+    @Test
+    void testBoundedReaderUnderBurst() throws InterruptedException {
+        String recipient = "bounded-test-topic";
+        String sender = "sender";
+        int numberOfMessages = 200;
+        int workers = 2;
+
+        CountDownLatch latch = new CountDownLatch(numberOfMessages);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        // Slow listener behind a small queue, the reader has to pause and resume to get through the burst
+        pipeService.registerReader("testreader", recipient, packet -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            latch.countDown();
+        }, PipeReaderOptions.bounded(workers, 10));
+
+        // Send a burst of messages
+        for (int i = 0; i < numberOfMessages; i++) {
+            pipeService.send(sender, recipient, Map.of("i", i), null, null);
+        }
+
+        // All messages are processed, never by more than the configured workers at once
+        assertTrue(latch.await(60, TimeUnit.SECONDS), "Not all messages were processed within 60 seconds");
+        assertTrue(maxRunning.get() <= workers, "No more than %d messages should be processed at once".formatted(workers));
+    }
+
+    @Test
+    void testKeyedReaderKeepsOrderPerKey() throws InterruptedException {
+        String recipient = "keyed-test-topic";
+        String sender = "sender";
+        int numberOfMessages = 200;
+        int numberOfKeys = 5;
+
+        CountDownLatch latch = new CountDownLatch(numberOfMessages);
+        Map<String, List<Long>> received = new ConcurrentHashMap<>();
+
+        pipeService.registerReader("testreader", recipient, packet -> {
+            long seq = SafeConvert.toLong(packet.getPayload().get("seq")).orElse(-1L);
+            received.computeIfAbsent(packet.getReqId(), k -> Collections.synchronizedList(new ArrayList<>())).add(seq);
+            latch.countDown();
+        }, PipeReaderOptions.keyed(4, 50, PipeReaderOptions.OrderingKey.REQ_ID));
+
+        // Interleave messages of several keys
+        for (int i = 0; i < numberOfMessages; i++) {
+            pipeService.send(sender, recipient, Map.of("seq", i), null, "key-" + (i % numberOfKeys));
+        }
+
+        assertTrue(latch.await(60, TimeUnit.SECONDS), "Not all messages were processed within 60 seconds");
+
+        // Messages sharing a key are processed in the order they were sent
+        assertEquals(numberOfKeys, received.size(), "Every key should have been received.");
+        received.forEach((key, seqs) -> {
+            List<Long> sorted = new ArrayList<>(seqs);
+            Collections.sort(sorted);
+            assertEquals(sorted, seqs, "Messages for %s should be processed in order".formatted(key));
+        });
+    }
+
+    @Test
+    void testReadersSharingGroup() throws InterruptedException {
+        String firstRecipient = "group-test-topic-1";
+        String secondRecipient = "group-test-topic-2";
+        String sender = "sender";
+        PipeReaderOptions options = PipeReaderOptions.builder().group("shared-test-group").build();
+
+        CountDownLatch firstLatch = new CountDownLatch(2);
+        CountDownLatch secondLatch = new CountDownLatch(1);
+
+        // Two readers served by the same consumer
+        pipeService.registerReader("testreader", firstRecipient, packet -> firstLatch.countDown(), options);
+        pipeService.registerReader("testreader2", secondRecipient, packet -> secondLatch.countDown(), options);
+
+        pipeService.send(sender, firstRecipient, Map.of("Hello", "first"), null, null);
+        pipeService.send(sender, secondRecipient, Map.of("Hello", "second"), null, null);
+        assertTrue(secondLatch.await(30, TimeUnit.SECONDS), "Message for the second reader was not processed");
+
+        // Removing a reader leaves the other one running
+        pipeService.unregisterReader("testreader2");
+        pipeService.send(sender, firstRecipient, Map.of("Hello", "again"), null, null);
+        assertTrue(firstLatch.await(30, TimeUnit.SECONDS), "Messages for the first reader were not processed");
+    }
+
+    @Test
+    void testInFlightRecordsAreDeliveredAgainAfterClose() throws InterruptedException {
+        String recipient = "redelivery-test-topic";
+        String sender = "sender";
+        int numberOfMessages = 10;
+
+        // First reader takes the records but never completes them: some in the dispatcher, the rest waiting in the paused reader
+        CountDownLatch firstReceived = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        pipeService.registerReader("testreader", recipient, packet -> {
+            firstReceived.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, PipeReaderOptions.bounded(1, 2));
+
+        for (int i = 0; i < numberOfMessages; i++) {
+            pipeService.send(sender, recipient, Map.of("i", i), null, null);
+        }
+        assertTrue(firstReceived.await(30, TimeUnit.SECONDS), "First message was not received");
+
+        // Longer than the consumer auto commit interval, nothing must be committed past the records in flight
+        Thread.sleep(7000);
+        pipeService.unregisterReader("testreader");
+        release.countDown();
+
+        // Same group again: every record is delivered again
+        Set<Long> redelivered = ConcurrentHashMap.newKeySet();
+        CountDownLatch latch = new CountDownLatch(numberOfMessages);
+        pipeService.registerReader("testreader", recipient, packet -> {
+            if (redelivered.add(SafeConvert.toLong(packet.getPayload().get("i")).orElse(-1L))) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(60, TimeUnit.SECONDS), "Records in flight when the reader closed were not delivered again, got %s".formatted(redelivered));
+    }
+
+    @Test
+    void testSendAsyncAndSendAll() throws Exception {
+        String recipient = "send-all-test-topic";
+        String sender = "sender";
+        int numberOfMessages = 500;
+
+        CountDownLatch latch = new CountDownLatch(numberOfMessages + 1);
+        pipeService.registerReader("testreader", recipient, packet -> latch.countDown());
+
+        // A single message is acknowledged with its position in the topic
+        PipeSendResult single = pipeService.sendAsync(sender, recipient, Map.of("Hello", "async"), null, null)
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(recipient, single.getTopic());
+        assertTrue(single.getOffset() >= 0, "Offset should be assigned by the broker");
+
+        // Many messages are acknowledged together, in order
+        List<PipePacket> packets = new ArrayList<>();
+        for (int i = 0; i < numberOfMessages; i++) {
+            PipePacket packet = new PipePacket();
+            packet.setSndr(sender);
+            packet.setRcpt(recipient);
+            packet.setPayload(Map.of("i", i));
+            packets.add(packet);
+        }
+        CompletableFuture<List<PipeSendResult>> all = pipeService.sendAll(packets);
+        List<PipeSendResult> results = all.get(30, TimeUnit.SECONDS);
+        assertEquals(numberOfMessages, results.size());
+        for (int i = 0; i < numberOfMessages; i++) {
+            assertEquals(i, SafeConvert.toLong(results.get(i).getPacket().getPayload().get("i")).orElse(-1L));
+            assertNotNull(results.get(i).getPacket().getPackId(), "Packet ID should be assigned");
+        }
+
+        assertTrue(latch.await(60, TimeUnit.SECONDS), "Not all messages were processed within 60 seconds");
+    }
 }
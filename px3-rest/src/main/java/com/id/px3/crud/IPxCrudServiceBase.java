@@ -1,5 +1,8 @@
 package com.id.px3.crud;
 
+import com.id.px3.error.PxException;
+import org.springframework.http.HttpStatus;
+
 import java.util.List;
 import java.util.Map;
 
@@ -9,6 +12,16 @@ public interface IPxCrudServiceBase<T, E, K> {
 
     List<T> findAll();
 
+    /**
+     * Find a page of items, with paging, sorting and projection done by the store
+     *
+     * @param request - page, sort order and fields
+     * @return page
+     */
+    default PxPage<T> findPage(PxPageRequest request) {
+        throw new PxException(HttpStatus.NOT_IMPLEMENTED, "Paging not supported by %s".formatted(getClass().getSimpleName()));
+    }
+
     T findById(K id);
 
     List<T> findByIds(List<K> ids);
@@ -0,0 +1,23 @@
+package com.id.px3.crud;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page of a findPage query
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PxPage<T> {
+    private List<T> items;
+    private int page;
+    private int size;
+    // Total number of items, only when requested
+    private Long total;
+    // Cursor of the next page when the request was after a cursor, null on the last page
+    private String next;
+}
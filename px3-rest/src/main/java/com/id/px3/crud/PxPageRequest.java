@@ -0,0 +1,68 @@
+package com.id.px3.crud;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Page, sort order and fields of a findPage query.
+ * Pages are read by offset (page * size), or after a cursor when sorting by ID, which stays fast on deep pages.
+ */
+@Data
+@Builder
+public class PxPageRequest {
+
+    public static final int DEFAULT_SIZE = 50;
+    public static final int MAX_SIZE = 1000;
+
+    @Builder.Default
+    private int page = 0;
+    @Builder.Default
+    private int size = DEFAULT_SIZE;
+    @Builder.Default
+    private List<Order> sort = new ArrayList<>();
+    // Fields to return, all when empty
+    @Builder.Default
+    private List<String> fields = new ArrayList<>();
+    // ID of the last item of the previous page, replaces the page number; empty for the first page of a cursor walk
+    private String after;
+    // Count the total number of items, which costs a query of its own
+    private boolean withTotal;
+
+    /**
+     * Sort key
+     *
+     * @param field - field name
+     * @param descending - true for descending order
+     */
+    public record Order(String field, boolean descending) {
+
+        /**
+         * Parse a sort expression: comma separated field names, '-' prefix for descending order (e.g. "name,-createdAt")
+         *
+         * @param sort - sort expression
+         * @return sort keys
+         */
+        public static List<Order> parse(String sort) {
+            List<Order> orders = new ArrayList<>();
+            if (sort == null) {
+                return orders;
+            }
+            for (String key : sort.split(",")) {
+                String field = key.trim();
+                if (field.isEmpty()) {
+                    continue;
+                }
+                boolean descending = field.startsWith("-");
+                if (descending || field.startsWith("+")) {
+                    field = field.substring(1);
+                }
+                orders.add(new Order(field, descending));
+            }
+            return orders;
+        }
+    }
+
+}
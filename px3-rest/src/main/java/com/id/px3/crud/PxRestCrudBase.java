@@ -1,5 +1,6 @@
 package com.id.px3.crud;
 
+import com.id.px3.error.PxException;
 import com.id.px3.rest.PxRestControllerBase;
 import com.id.px3.rest.security.JwtSecured;
 import lombok.extern.slf4j.Slf4j;
@@ -34,6 +35,50 @@ public abstract class PxRestCrudBase<T, K> extends PxRestControllerBase {
         return ResponseEntity.ok(list);
     }
 
+    /**
+     * Find a page of the items, sorted and projected by the store.
+     * Mapped on the collection root when a size is given, so that no path is taken away from findById:
+     * GET / still lists all the items, GET /?size=50 pages them.
+     *
+     * @param page - page number, from 0
+     * @param size - page size, up to PxPageRequest.MAX_SIZE
+     * @param sort - sort keys, '-' prefix for descending order (e.g. "name,-createdAt")
+     * @param fields - fields to return
+     * @param after - ID of the last item of the previous page when sorting by ID, empty for the first page
+     * @param total - count the total number of items
+     * @return page, with the cursor of the next one when paging after a cursor
+     */
+    @GetMapping(params = "size")
+    @JwtSecured
+    public ResponseEntity<PxPage<T>> findPage(@RequestParam(value = "page", defaultValue = "0") int page,
+                                              @RequestParam(value = "size") int size,
+                                              @RequestParam(value = "sort", required = false) String sort,
+                                              @RequestParam(value = "fields", required = false) List<String> fields,
+                                              @RequestParam(value = "after", required = false) String after,
+                                              @RequestParam(value = "total", defaultValue = "false") boolean total) {
+        provideCachedAccessControl().canFindAll(getUserId(), getAuthToken());
+        if (page < 0 || size < 1 || size > PxPageRequest.MAX_SIZE) {
+            throw new PxException(HttpStatus.BAD_REQUEST, "Invalid page %d of size %d - size must be 1 to %d"
+                    .formatted(page, size, PxPageRequest.MAX_SIZE));
+        }
+        if (after != null && page > 0) {
+            throw new PxException(HttpStatus.BAD_REQUEST, "Use either page or after, not both");
+        }
+
+        PxPageRequest request = PxPageRequest.builder()
+                .page(page)
+                .size(size)
+                .sort(PxPageRequest.Order.parse(sort))
+                .fields(fields != null ? fields : List.of())
+                .after(after)
+                .withTotal(total)
+                .build();
+        log.trace("findPage({})", request);
+        PxPage<T> result = provideCachedCrudService().findPage(request);
+        log.trace("findPage({}) returns {} page", request, result);
+        return ResponseEntity.ok(result);
+    }
+
     @PostMapping("action/{name}")
     @JwtSecured
     public ResponseEntity<List<T>> action(@PathVariable("name") String name, @RequestBody Map<String, Object> params) {
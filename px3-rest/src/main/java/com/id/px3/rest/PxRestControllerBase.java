@@ -1,6 +1,7 @@
 package com.id.px3.rest;
 
 import com.id.px3.error.PxException;
+import com.id.px3.rest.security.JwtPrincipal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -27,6 +28,10 @@ public abstract class PxRestControllerBase {
         return UserContextHolder.getRoles();
     }
 
+    public JwtPrincipal getPrincipal() {
+        return UserContextHolder.getPrincipal();
+    }
+
     @ExceptionHandler(PxException.class)
     public final ResponseEntity<PxErrorResponse> handlePxException(PxException ex, WebRequest request) {
         HttpStatus status = HttpStatus.valueOf(ex.getStatusCode().value());
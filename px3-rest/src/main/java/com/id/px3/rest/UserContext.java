@@ -0,0 +1,28 @@
+package com.id.px3.rest;
+
+import com.id.px3.rest.security.JwtPrincipal;
+
+import java.util.List;
+
+/**
+ * Authenticated user of the current request, immutable so that it can be shared with the tasks the request starts
+ *
+ * @param userId - user ID
+ * @param authToken - access token of the request
+ * @param roles - roles granted by the token
+ * @param principal - verified token claims
+ */
+public record UserContext(String userId, String authToken, List<String> roles, JwtPrincipal principal) {
+
+    /**
+     * Context of a verified token
+     *
+     * @param authToken - access token
+     * @param principal - verified token claims
+     * @return context
+     */
+    public static UserContext of(String authToken, JwtPrincipal principal) {
+        return new UserContext(principal.subject(), authToken, List.copyOf(principal.roles()), principal);
+    }
+
+}
@@ -1,40 +1,198 @@
 package com.id.px3.rest;
 
+import com.id.px3.rest.security.JwtPrincipal;
+
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
- * Holds the user ID for the current request.
+ * Holds the user context of the current request.
+ * The context is bound for the extent of a scope, which restores the previous one when closed,
+ * so it cannot outlive the request on a pooled or virtual thread. Tasks handed to other threads
+ * get the context through the wrap helpers.
  */
 public class UserContextHolder {
-    private static final ThreadLocal<String> userIdHolder = new ThreadLocal<>();
-    private static final ThreadLocal<String> authTokenHolder = new ThreadLocal<>();
-    private static final ThreadLocal<List<String>> rolesHolder = new ThreadLocal<>();
+    private static final ThreadLocal<UserContext> contextHolder = new ThreadLocal<>();
 
-    public static void setAuthToken(String authToken) {
-        authTokenHolder.set(authToken);
+    /**
+     * Bound context, to close when the scope ends
+     */
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
     }
 
-    public static void setUserId(String userId) {
-        userIdHolder.set(userId);
+    /**
+     * Bind a context to the current thread until the returned scope is closed
+     *
+     * @param context - context to bind, null for none
+     * @return scope restoring the previous context on close
+     */
+    public static Scope open(UserContext context) {
+        UserContext previous = contextHolder.get();
+        set(context);
+        return () -> set(previous);
     }
 
-    public static void setRoles(List<String> roles) {
-        rolesHolder.set(roles);
+    /**
+     * Run a task with a context bound
+     *
+     * @param context - context to bind
+     * @param task - task to run
+     */
+    public static void runWith(UserContext context, Runnable task) {
+        try (Scope ignored = open(context)) {
+            task.run();
+        }
+    }
+
+    /**
+     * Call a task with a context bound
+     *
+     * @param context - context to bind
+     * @param task - task to call
+     * @return task result
+     */
+    public static <T> T callWith(UserContext context, Callable<T> task) throws Exception {
+        try (Scope ignored = open(context)) {
+            return task.call();
+        }
+    }
+
+    /**
+     * Get the context of the current request
+     *
+     * @return context, null outside a secured request
+     */
+    public static UserContext getContext() {
+        return contextHolder.get();
     }
 
     public static String getAuthToken() {
-        return authTokenHolder.get();
+        UserContext context = contextHolder.get();
+        return context != null ? context.authToken() : null;
     }
 
     public static String getUserId() {
-        return userIdHolder.get();
+        UserContext context = contextHolder.get();
+        return context != null ? context.userId() : null;
     }
 
     public static List<String> getRoles() {
-        return rolesHolder.get();
+        UserContext context = contextHolder.get();
+        return context != null ? context.roles() : null;
     }
 
+    public static JwtPrincipal getPrincipal() {
+        UserContext context = contextHolder.get();
+        return context != null ? context.principal() : null;
+    }
+
+    /**
+     * Capture the current context into a task run on another thread
+     *
+     * @param task - task to wrap
+     * @return task running with the context of the caller
+     */
+    public static Runnable wrap(Runnable task) {
+        // Wrapped even without a context, so that the task never sees what another task left on the thread
+        UserContext context = contextHolder.get();
+        return () -> runWith(context, task);
+    }
+
+    /**
+     * Capture the current context into a task run on another thread, e.g. a fork of a structured task scope
+     *
+     * @param task - task to wrap
+     * @return task running with the context of the caller
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        UserContext context = contextHolder.get();
+        return () -> callWith(context, task);
+    }
+
+    /**
+     * Capture the current context into a supplier, e.g. for CompletableFuture.supplyAsync
+     *
+     * @param supplier - supplier to wrap
+     * @return supplier running with the context of the caller
+     */
+    public static <T> Supplier<T> wrapSupplier(Supplier<T> supplier) {
+        UserContext context = contextHolder.get();
+        return () -> {
+            try (Scope ignored = open(context)) {
+                return supplier.get();
+            }
+        };
+    }
+
+    /**
+     * Executor propagating the context of the submitting thread to its tasks
+     *
+     * @param executor - executor to wrap
+     * @return executor propagating the context
+     */
+    public static Executor wrapExecutor(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    /**
+     * Set the user ID of the current thread, outside of any scope
+     *
+     * @param userId - user ID
+     * @deprecated bind a whole context with {@link #open(UserContext)} or {@link #runWith(UserContext, Runnable)}
+     */
+    @Deprecated
+    public static void setUserId(String userId) {
+        UserContext context = contextHolder.get();
+        set(context != null
+                ? new UserContext(userId, context.authToken(), context.roles(), context.principal())
+                : new UserContext(userId, null, null, null));
+    }
+
+    /**
+     * Set the access token of the current thread, outside of any scope
+     *
+     * @param authToken - access token
+     * @deprecated bind a whole context with {@link #open(UserContext)} or {@link #runWith(UserContext, Runnable)}
+     */
+    @Deprecated
+    public static void setAuthToken(String authToken) {
+        UserContext context = contextHolder.get();
+        set(context != null
+                ? new UserContext(context.userId(), authToken, context.roles(), context.principal())
+                : new UserContext(null, authToken, null, null));
+    }
+
+    /**
+     * Set the roles of the current thread, outside of any scope
+     *
+     * @param roles - roles
+     * @deprecated bind a whole context with {@link #open(UserContext)} or {@link #runWith(UserContext, Runnable)}
+     */
+    @Deprecated
+    public static void setRoles(List<String> roles) {
+        UserContext context = contextHolder.get();
+        set(context != null
+                ? new UserContext(context.userId(), context.authToken(), roles, context.principal())
+                : new UserContext(null, null, roles, null));
+    }
+
+    /**
+     * Remove the context of the current thread, whatever scope bound it
+     */
     public static void clear() {
-        userIdHolder.remove();
+        contextHolder.remove();
+    }
+
+    private static void set(UserContext context) {
+        if (context == null) {
+            // Remove rather than store null, nothing is left behind on the thread
+            contextHolder.remove();
+        } else {
+            contextHolder.set(context);
+        }
     }
 }
@@ -0,0 +1,22 @@
+package com.id.px3.rest;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Propagates the user context of the caller to @Async tasks.
+ * Spring Boot applies the decorator to the auto-configured task executor, with platform or virtual threads.
+ * Opt-in with px3.rest.user-context.async-propagation=true: Boot applies a decorator only when it is the single
+ * one, so registering it unconditionally would silently disable a decorator the application already defines.
+ */
+@Component
+@ConditionalOnProperty(name = "px3.rest.user-context.async-propagation", havingValue = "true")
+public class UserContextTaskDecorator implements TaskDecorator {
+
+    @Override
+    public Runnable decorate(Runnable runnable) {
+        return UserContextHolder.wrap(runnable);
+    }
+
+}
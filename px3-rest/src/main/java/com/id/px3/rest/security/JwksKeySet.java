@@ -0,0 +1,199 @@
+package com.id.px3.rest.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.*;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Public keys of a JWKS document, loaded from a file or from the classpath and cached by key ID.
+ * The document is read again when it changes on disk, checked at most once per reload interval,
+ * or right away when a token is signed with an unknown key ID, so that keys can be rotated without restarting.
+ * Several keys can be published at once: a new key is added before tokens are signed with it,
+ * the old one is removed once its tokens have expired.
+ */
+@Slf4j
+public class JwksKeySet {
+
+    // Min time between two reloads caused by unknown key IDs, so that bogus tokens cannot force a read per request
+    private static final long MIN_RELOAD_INTERVAL_MS = 1000;
+    private static final Set<String> PUBLIC_MEMBERS = Set.of("kty", "kid", "use", "alg", "n", "e", "crv", "x", "y");
+
+    private final Resource resource;
+    private final long reloadIntervalMs;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final List<Runnable> keyRemovalListeners = new ArrayList<>();
+
+    // Replaced as a whole on reload, readers never see a partial key set
+    private volatile Keys keys;
+    private volatile long lastCheckMs;
+    private long lastModified;
+
+    /**
+     * Key set
+     *
+     * @param location - JWKS document location, 'classpath:' prefix for a classpath resource
+     * @param reloadInterval - interval between checks for changes of the document
+     */
+    public JwksKeySet(String location, Duration reloadInterval) {
+        if (location == null || location.isBlank()) {
+            throw new IllegalArgumentException("JWKS location must not be null or blank");
+        }
+        this.resource = JwtKeys.resourceOf(location);
+        this.reloadIntervalMs = reloadInterval.toMillis();
+        this.keys = load();
+        this.lastCheckMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Get a public key by key ID
+     *
+     * @param kid - key ID, null for the only key of the set
+     * @param keyType - expected key type
+     * @return key, null if there is no such key of the expected type
+     */
+    public <K extends PublicKey> K getKey(String kid, Class<K> keyType) {
+        reloadIfChanged(false);
+        PublicKey key = keys.find(kid);
+        if (key == null && kid != null) {
+            // Possibly a key just rotated in
+            reloadIfChanged(true);
+            key = keys.find(kid);
+        }
+        return keyType.isInstance(key) ? keyType.cast(key) : null;
+    }
+
+    /**
+     * Get the public members of the keys, to publish them as a JWKS document
+     *
+     * @return JWKS document
+     */
+    public Map<String, Object> toJwks() {
+        reloadIfChanged(false);
+        return Map.of("keys", keys.publicJwks);
+    }
+
+    /**
+     * Run an action whenever a reload removes keys, e.g. to drop what was verified with them
+     *
+     * @param listener - action to run
+     */
+    public synchronized void onKeyRemoval(Runnable listener) {
+        keyRemovalListeners.add(listener);
+    }
+
+    private void reloadIfChanged(boolean unknownKey) {
+        long now = System.currentTimeMillis();
+        long interval = unknownKey ? MIN_RELOAD_INTERVAL_MS : reloadIntervalMs;
+        if (now - lastCheckMs < interval) {
+            return;
+        }
+        synchronized (this) {
+            if (now - lastCheckMs < interval) {
+                return;
+            }
+            lastCheckMs = now;
+            try {
+                if (resource.isFile() && resource.lastModified() == lastModified) {
+                    return;
+                }
+                Keys previous = keys;
+                keys = load();
+                if (!keys.byKid.keySet().containsAll(previous.byKid.keySet())) {
+                    log.info("Keys removed from %s".formatted(resource.getDescription()));
+                    keyRemovalListeners.forEach(Runnable::run);
+                }
+            } catch (Exception e) {
+                // Keep the current keys
+                log.warn("Cannot reload JWKS from %s: %s".formatted(resource.getDescription(), e.getMessage()));
+            }
+        }
+    }
+
+    private Keys load() {
+        try {
+            if (resource.isFile()) {
+                lastModified = resource.lastModified();
+            }
+            JsonNode document = objectMapper.readTree(JwtKeys.read(resource));
+            Map<String, PublicKey> byKid = new HashMap<>();
+            List<Map<String, Object>> publicJwks = new ArrayList<>();
+            PublicKey single = null;
+            for (JsonNode jwk : document.path("keys")) {
+                if (jwk.hasNonNull("use") && !"sig".equals(jwk.get("use").asText())) {
+                    continue;
+                }
+                PublicKey key = toPublicKey(jwk);
+                String kid = jwk.path("kid").asText(null);
+                byKid.put(kid, key);
+                single = key;
+
+                Map<String, Object> publicJwk = new LinkedHashMap<>();
+                jwk.fields().forEachRemaining(field -> {
+                    if (PUBLIC_MEMBERS.contains(field.getKey())) {
+                        publicJwk.put(field.getKey(), field.getValue().asText());
+                    }
+                });
+                publicJwks.add(publicJwk);
+            }
+            if (byKid.isEmpty()) {
+                throw new IllegalStateException("No signing keys in JWKS %s".formatted(resource.getDescription()));
+            }
+            log.debug("Loaded %d keys from %s".formatted(byKid.size(), resource.getDescription()));
+            return new Keys(byKid, byKid.size() == 1 ? single : null, List.copyOf(publicJwks));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid JWKS %s: %s".formatted(resource.getDescription(), e.getMessage()), e);
+        }
+    }
+
+    private static PublicKey toPublicKey(JsonNode jwk) throws GeneralSecurityException {
+        String kty = jwk.path("kty").asText();
+        return switch (kty) {
+            case "RSA" -> KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+                    unsigned(jwk, "n"), unsigned(jwk, "e")));
+            case "EC" -> {
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec(curveOf(jwk.path("crv").asText())));
+                yield KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(
+                        new ECPoint(unsigned(jwk, "x"), unsigned(jwk, "y")),
+                        parameters.getParameterSpec(ECParameterSpec.class)));
+            }
+            default -> throw new GeneralSecurityException("Unsupported key type: " + kty);
+        };
+    }
+
+    private static String curveOf(String crv) throws GeneralSecurityException {
+        return switch (crv) {
+            case "P-256" -> "secp256r1";
+            case "P-384" -> "secp384r1";
+            case "P-521" -> "secp521r1";
+            default -> throw new GeneralSecurityException("Unsupported curve: " + crv);
+        };
+    }
+
+    private static BigInteger unsigned(JsonNode jwk, String member) throws GeneralSecurityException {
+        String value = jwk.path(member).asText(null);
+        if (value == null) {
+            throw new GeneralSecurityException("Missing key member: " + member);
+        }
+        return new BigInteger(1, Base64.getUrlDecoder().decode(value));
+    }
+
+    private record Keys(Map<String, PublicKey> byKid, PublicKey single, List<Map<String, Object>> publicJwks) {
+
+        private PublicKey find(String kid) {
+            return kid == null ? single : byKid.get(kid);
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+package com.id.px3.rest.security;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Claims of a verified token
+ *
+ * @param subject - user ID
+ * @param roles - roles granted by the token
+ * @param expiresAt - token expiration, null if the token does not expire
+ */
+public record JwtPrincipal(String subject, Set<String> roles, Instant expiresAt) {
+
+    /**
+     * Check if the token grants at least one of the required roles
+     *
+     * @param requiredRoles - required roles, none means any token will do
+     * @return true if a role matches or no role is required
+     */
+    public boolean hasAnyRole(Collection<String> requiredRoles) {
+        if (requiredRoles == null || requiredRoles.isEmpty()) {
+            return true;
+        }
+        for (String role : requiredRoles) {
+            if (roles.contains(role)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if the token has expired
+     *
+     * @return true if the expiration has passed
+     */
+    public boolean isExpired() {
+        return expiresAt != null && !Instant.now().isBefore(expiresAt);
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.id.px3.rest.security;
 
 
+import com.id.px3.rest.UserContext;
 import com.id.px3.rest.UserContextHolder;
 import jakarta.servlet.http.HttpServletRequest;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -23,19 +24,13 @@ public class JwtSecurityAspect {
 
     @Around("@annotation(jwtSecured)")
     public Object aroundCheckToken(ProceedingJoinPoint joinPoint, JwtSecured jwtSecured) throws Throwable {
-        try {
-            String token = extractAccessToken();
-            String userId = jwtService.validateTokenWithRoles(token, new HashSet<>(Arrays.asList(jwtSecured.roles())));
-
-            //  set the userId for the current request
-            UserContextHolder.setUserId(userId);
-            UserContextHolder.setAuthToken(token);
-            UserContextHolder.setRoles(Arrays.asList(jwtSecured.roles()));
+        String token = extractAccessToken();
+        JwtPrincipal principal = jwtService.validateTokenAndGetPrincipal(token, new HashSet<>(Arrays.asList(jwtSecured.roles())));
 
+        //  publish the verified token for the current request, later checks don't verify it again
+        //  the scope restores the previous context when the call ends, nothing is left on the thread
+        try (UserContextHolder.Scope ignored = UserContextHolder.open(UserContext.of(token, principal))) {
             return joinPoint.proceed();
-        } finally {
-            //  ensure that the ThreadLocal is cleared after the request is finished
-            UserContextHolder.clear();
         }
     }
 
@@ -5,11 +5,19 @@ import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.exceptions.TokenExpiredException;
 import com.auth0.jwt.interfaces.DecodedJWT;
+import com.auth0.jwt.interfaces.ECDSAKeyProvider;
+import com.auth0.jwt.interfaces.RSAKeyProvider;
 import com.id.px3.error.PxException;
+import com.id.px3.utils.DurationParser;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
@@ -20,6 +28,9 @@ public class JwtService {
     private static final String CLAIM_ROLES = "roles";
     private static final String HEADER_TYP = "typ";
     private static final String JWT = "JWT";
+    private static final String HS256 = "HS256";
+    private static final String RS256 = "RS256";
+    private static final String ES256 = "ES256";
 
     @Value("${px3.auth.jwt.secret:culoecamicia}")
     private String secret;
@@ -27,6 +38,116 @@ public class JwtService {
     @Value("${px3.auth.jwt.issuer:px3}")
     private String issuer;
 
+    // HS256 signs and verifies with the shared secret, RS256 and ES256 verify with the public keys of the JWKS document
+    @Value("${px3.auth.jwt.algorithm:HS256}")
+    private String algorithmName;
+
+    // PKCS#8 PEM private key, only on the service issuing tokens; without it tokens are only verified
+    @Value("${px3.auth.jwt.private-key:}")
+    private String privateKeyLocation;
+
+    // ID of the signing key, written in the token header to pick the verification key
+    @Value("${px3.auth.jwt.key-id:}")
+    private String keyId;
+
+    @Value("${px3.auth.jwt.jwks:}")
+    private String jwksLocation;
+
+    @Value("${px3.auth.jwt.jwks-reload-interval:60s}")
+    private String jwksReloadInterval;
+
+    // Max number of verified tokens kept, 0 to verify every token on every call
+    @Value("${px3.auth.jwt.cache-size:10000}")
+    private int cacheSize;
+
+    private Algorithm algorithm;
+    private JWTVerifier verifier;
+    private VerifiedTokenCache tokenCache;
+    private JwksKeySet keySet;
+    private boolean signer;
+
+    @PostConstruct
+    public void init() {
+        tokenCache = new VerifiedTokenCache(cacheSize);
+
+        // Algorithm and verifier are thread safe, build them once
+        algorithm = switch (algorithmName.toUpperCase()) {
+            case HS256 -> {
+                signer = true;
+                yield Algorithm.HMAC256(secret);
+            }
+            case RS256 -> Algorithm.RSA256(rsaKeyProvider());
+            case ES256 -> Algorithm.ECDSA256(ecdsaKeyProvider());
+            default -> throw new IllegalStateException("Unsupported JWT algorithm: %s - expected one of %s, %s, %s"
+                    .formatted(algorithmName, HS256, RS256, ES256));
+        };
+        verifier = com.auth0.jwt.JWT.require(algorithm)
+                .withIssuer(issuer)
+                .build();
+    }
+
+    private RSAKeyProvider rsaKeyProvider() {
+        loadKeySet();
+        RSAPrivateKey privateKey = loadPrivateKey("RSA", RSAPrivateKey.class);
+        String signingKeyId = keyId.isBlank() ? null : keyId;
+        return new RSAKeyProvider() {
+            @Override
+            public RSAPublicKey getPublicKeyById(String kid) {
+                return keySet.getKey(kid, RSAPublicKey.class);
+            }
+
+            @Override
+            public RSAPrivateKey getPrivateKey() {
+                return privateKey;
+            }
+
+            @Override
+            public String getPrivateKeyId() {
+                return signingKeyId;
+            }
+        };
+    }
+
+    private ECDSAKeyProvider ecdsaKeyProvider() {
+        loadKeySet();
+        ECPrivateKey privateKey = loadPrivateKey("EC", ECPrivateKey.class);
+        String signingKeyId = keyId.isBlank() ? null : keyId;
+        return new ECDSAKeyProvider() {
+            @Override
+            public ECPublicKey getPublicKeyById(String kid) {
+                return keySet.getKey(kid, ECPublicKey.class);
+            }
+
+            @Override
+            public ECPrivateKey getPrivateKey() {
+                return privateKey;
+            }
+
+            @Override
+            public String getPrivateKeyId() {
+                return signingKeyId;
+            }
+        };
+    }
+
+    private void loadKeySet() {
+        // Even the signer verifies tokens (e.g. refresh tokens), so the public keys are always needed
+        if (jwksLocation.isBlank()) {
+            throw new IllegalStateException("Property px3.auth.jwt.jwks is required with the %s algorithm".formatted(algorithmName));
+        }
+        keySet = new JwksKeySet(jwksLocation, DurationParser.parse(jwksReloadInterval));
+        // Tokens verified with a revoked key must be verified again
+        keySet.onKeyRemoval(tokenCache::clear);
+    }
+
+    private <K> K loadPrivateKey(String keyAlgorithm, Class<K> keyType) {
+        if (privateKeyLocation.isBlank()) {
+            return null;
+        }
+        signer = true;
+        return keyType.cast(JwtKeys.loadPrivateKey(privateKeyLocation, keyAlgorithm));
+    }
+
     /**
      * Generates a JWT token.
      *
@@ -36,6 +157,9 @@ public class JwtService {
      * @return A signed JWT token.
      */
     public String generateToken(String userId, Set<String> roles, Duration expiration) {
+        if (!signer) {
+            throw new IllegalStateException("No private key configured, tokens can only be verified");
+        }
         return com.auth0.jwt.JWT.create()
                 .withHeader(Map.of(HEADER_TYP, JWT))
                 .withSubject(userId)
@@ -43,7 +167,7 @@ public class JwtService {
                 .withIssuedAt(Instant.now())
                 .withExpiresAt(Instant.now().plus(expiration))
                 .withClaim(CLAIM_ROLES, new ArrayList<>(roles))
-                .sign(Algorithm.HMAC256(secret));
+                .sign(algorithm);
     }
 
     /**
@@ -54,25 +178,28 @@ public class JwtService {
      * @throws JWTVerificationException if the token is expired, invalid, or does not contain the required roles.
      */
     public String validateTokenWithRoles(String token, Set<String> requiredRoles) throws JWTVerificationException {
+        return validateTokenAndGetPrincipal(token, requiredRoles).subject();
+    }
+
+    /**
+     * Verifies the validity of a JWT token and checks for specific roles.
+     *
+     * @param token         The JWT token to verify.
+     * @param requiredRoles The roles required to be present in the token (at least one must match).
+     * @return The claims of the token: subject, roles and expiration.
+     * @throws PxException if the token is expired, invalid, or does not contain the required roles.
+     */
+    public JwtPrincipal validateTokenAndGetPrincipal(String token, Set<String> requiredRoles) {
         try {
             //  check signature and expiration
-            Algorithm algorithm = Algorithm.HMAC256(secret);
-            JWTVerifier verifier = com.auth0.jwt.JWT.require(algorithm)
-                    .withIssuer(issuer)
-                    .build();
-
-            DecodedJWT jwt = verifier.verify(token);
+            JwtPrincipal principal = verify(token);
 
             //  check roles
-            if (!requiredRoles.isEmpty()) {
-                List<String> tokenRoles = jwt.getClaim(CLAIM_ROLES).asList(String.class);
-                if (tokenRoles.stream().noneMatch(requiredRoles::contains)) {
-                    throw new JWTVerificationException("Token does not contain the required roles.");
-                }
+            if (!principal.hasAnyRole(requiredRoles)) {
+                throw new JWTVerificationException("Token does not contain the required roles.");
             }
 
-            //  return the username
-            return jwt.getSubject();
+            return principal;
         } catch (TokenExpiredException expiredException) {
             throw new PxException(HttpStatus.UNAUTHORIZED, "Token has expired");
         } catch (JWTVerificationException exception) {
@@ -89,17 +216,44 @@ public class JwtService {
      */
     public String validateTokenAndGetSubject(String token) {
         try {
-            Algorithm algorithm = Algorithm.HMAC256(secret);
-            JWTVerifier verifier = com.auth0.jwt.JWT.require(algorithm)
-                    .withIssuer(issuer)
-                    .build();
-
-            DecodedJWT jwt = verifier.verify(token);
-            return jwt.getSubject();
+            return verify(token).subject();
         } catch (TokenExpiredException expiredException) {
             throw new PxException(HttpStatus.UNAUTHORIZED, "Token has expired");
         } catch (JWTVerificationException exception) {
             throw new PxException(HttpStatus.UNAUTHORIZED, "Invalid token");
         }
     }
+
+    /**
+     * Gets the public keys used to verify the tokens, as a JWKS document.
+     *
+     * @return The JWKS document, null with the HS256 algorithm as the secret is never published.
+     */
+    public Map<String, Object> getJwks() {
+        return keySet != null ? keySet.toJwks() : null;
+    }
+
+    /**
+     * Verifies a token, or gets its claims from the cache if it has already been verified and is not expired.
+     *
+     * @param token The JWT token to verify.
+     * @return The claims of the token.
+     * @throws JWTVerificationException if the token is expired or invalid.
+     */
+    private JwtPrincipal verify(String token) throws JWTVerificationException {
+        JwtPrincipal principal = tokenCache.get(token);
+        if (principal != null) {
+            return principal;
+        }
+
+        // Read before verifying, a key removed meanwhile makes the cache reject the result
+        long generation = tokenCache.getGeneration();
+        DecodedJWT jwt = verifier.verify(token);
+        List<String> roles = jwt.getClaim(CLAIM_ROLES).asList(String.class);
+        principal = new JwtPrincipal(jwt.getSubject(),
+                roles != null ? Collections.unmodifiableSet(new HashSet<>(roles)) : Set.of(),
+                jwt.getExpiresAtAsInstant());
+        tokenCache.put(token, principal, generation);
+        return principal;
+    }
 }
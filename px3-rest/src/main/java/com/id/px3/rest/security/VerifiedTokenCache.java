@@ -0,0 +1,169 @@
+package com.id.px3.rest.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Claims of the tokens already verified, so that a token reused across requests is verified once.
+ * Tokens are keyed by their SHA-256 hash, the token itself is not kept.
+ * Entries are dropped once the token expires, the oldest ones are evicted first when the cache is full.
+ * Every entry is stamped with the generation of the key set it was verified under: clearing the cache starts
+ * a new generation, so a token verified with a removed key and stored while the cache was being cleared is
+ * never returned.
+ */
+public class VerifiedTokenCache {
+
+    private final int maxSize;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+
+    // Keys in insertion order, tokens issued with the same lifetime also expire in this order
+    private final Queue<String> arrivals = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger arrivalCount = new AtomicInteger();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * Token cache
+     *
+     * @param maxSize - max number of tokens, 0 to disable the cache
+     */
+    public VerifiedTokenCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Max size must not be negative");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the claims of a verified token
+     *
+     * @param token - token
+     * @return claims, null if the token has not been verified or has expired
+     */
+    public JwtPrincipal get(String token) {
+        if (maxSize == 0 || token == null) {
+            return null;
+        }
+        String key = keyOf(token);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.principal.isExpired() || entry.generation != generation.get()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.principal;
+    }
+
+    /**
+     * Get the current generation, to read before verifying a token and pass to {@link #put}
+     *
+     * @return key set generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Store the claims of a verified token
+     *
+     * @param token - token
+     * @param principal - token claims
+     * @param verifiedGeneration - generation read before the token was verified
+     */
+    public void put(String token, JwtPrincipal principal, long verifiedGeneration) {
+        if (maxSize == 0 || token == null || principal.isExpired() || verifiedGeneration != generation.get()) {
+            return;
+        }
+        String key = keyOf(token);
+        if (entries.putIfAbsent(key, new Entry(principal, verifiedGeneration)) == null) {
+            arrivals.add(key);
+            arrivalCount.incrementAndGet();
+            evict();
+        }
+    }
+
+    /**
+     * Drop all the cached tokens, e.g. when a signing key is revoked.
+     * Tokens verified before the call are not stored anymore, even if their put comes later.
+     */
+    public void clear() {
+        // New generation first, anything stored from now on under the old one is rejected
+        generation.incrementAndGet();
+        evictionLock.lock();
+        try {
+            entries.clear();
+            arrivals.clear();
+            arrivalCount.set(0);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of cached tokens
+     *
+     * @return cache size
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    private void evict() {
+        // A single thread evicts at a time, the others move on
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            String oldest;
+            while ((oldest = arrivals.peek()) != null) {
+                Entry entry = entries.get(oldest);
+                if (entry != null && !entry.principal.isExpired() && entries.size() <= maxSize) {
+                    break;
+                }
+                arrivals.poll();
+                arrivalCount.decrementAndGet();
+                if (entry != null) {
+                    entries.remove(oldest, entry);
+                }
+            }
+
+            // Keys of tokens dropped on lookup pile up behind live ones, clear them in bulk
+            if (arrivalCount.get() > 2 * maxSize) {
+                arrivals.removeIf(key -> {
+                    boolean stale = !entries.containsKey(key);
+                    if (stale) {
+                        arrivalCount.decrementAndGet();
+                    }
+                    return stale;
+                });
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private record Entry(JwtPrincipal principal, long generation) {
+    }
+
+    private static String keyOf(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
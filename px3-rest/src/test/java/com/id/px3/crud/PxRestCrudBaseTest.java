@@ -0,0 +1,221 @@
+package com.id.px3.crud;
+
+import com.id.px3.error.PxException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class PxRestCrudBaseTest {
+
+    private ItemService service;
+    private PxRestCrudBase<String, String> controller;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        service = new ItemService();
+        controller = new PxRestCrudBase<>() {
+            @Override
+            protected IPxAccessControlBase<String, String> provideAccessControl() {
+                return new AllowAll();
+            }
+
+            @Override
+            protected IPxCrudServiceBase<String, ?, String> provideCrudService() {
+                return service;
+            }
+
+            @Override
+            protected IPxCrudValidator<String> provideValidator() {
+                return null;
+            }
+        };
+        mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    }
+
+    @Test
+    void testRootWithoutSizeListsAllItems() throws Exception {
+        mockMvc.perform(get("/"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(3))
+                .andExpect(jsonPath("$[0]").value("a"));
+        assertNull(service.lastRequest, "Plain GET / should not page.");
+    }
+
+    @Test
+    void testRootWithSizeIsPaged() throws Exception {
+        mockMvc.perform(get("/").param("size", "2").param("sort", "-name"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.items.length()").value(2))
+                .andExpect(jsonPath("$.size").value(2));
+        assertEquals(List.of(new PxPageRequest.Order("name", true)), service.lastRequest.getSort());
+    }
+
+    @Test
+    void testItemWithIdPageIsFoundById() throws Exception {
+        // Paging must not take any path away from findById
+        mockMvc.perform(get("/page"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("item-page"));
+        assertNull(service.lastRequest, "GET /page should not page.");
+    }
+
+    @Test
+    void testFindAllReturnsTheList() {
+        ResponseEntity<List<String>> response = controller.findAll();
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of("a", "b", "c"), response.getBody());
+        assertNull(service.lastRequest, "findAll should not page.");
+    }
+
+    @Test
+    void testFindPageBuildsRequest() {
+        ResponseEntity<PxPage<String>> response = controller.findPage(2, 20, "name, -createdAt", List.of("name"), null, true);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        PxPageRequest request = service.lastRequest;
+        assertEquals(2, request.getPage());
+        assertEquals(20, request.getSize());
+        assertEquals(List.of(new PxPageRequest.Order("name", false), new PxPageRequest.Order("createdAt", true)), request.getSort());
+        assertEquals(List.of("name"), request.getFields());
+        assertNull(request.getAfter());
+        assertTrue(request.isWithTotal());
+    }
+
+    @Test
+    void testFindPageAfterCursor() {
+        PxPage<String> page = controller.findPage(0, 2, null, null, "", false).getBody();
+
+        assertEquals("", service.lastRequest.getAfter());
+        assertEquals(List.of(), service.lastRequest.getSort());
+        assertEquals(List.of(), service.lastRequest.getFields());
+        assertNotNull(page);
+        assertEquals("b", page.getNext(), "A cursor walk should return the cursor of the next page.");
+    }
+
+    @Test
+    void testFindPageRejectsInvalidSize() {
+        PxException tooSmall = assertThrows(PxException.class, () -> controller.findPage(0, 0, null, null, null, false));
+        assertEquals(HttpStatus.BAD_REQUEST, tooSmall.getStatusCode());
+        PxException tooLarge = assertThrows(PxException.class,
+                () -> controller.findPage(0, PxPageRequest.MAX_SIZE + 1, null, null, null, false));
+        assertEquals(HttpStatus.BAD_REQUEST, tooLarge.getStatusCode());
+        PxException negativePage = assertThrows(PxException.class, () -> controller.findPage(-1, 10, null, null, null, false));
+        assertEquals(HttpStatus.BAD_REQUEST, negativePage.getStatusCode());
+    }
+
+    @Test
+    void testFindPageRejectsPageWithCursor() {
+        PxException e = assertThrows(PxException.class, () -> controller.findPage(1, 10, null, null, "b", false));
+        assertEquals(HttpStatus.BAD_REQUEST, e.getStatusCode());
+    }
+
+    @Test
+    void testFindPageNotSupported() {
+        service.paging = false;
+
+        PxException e = assertThrows(PxException.class, () -> controller.findPage(0, 10, null, null, null, false));
+        assertEquals(HttpStatus.NOT_IMPLEMENTED, e.getStatusCode());
+    }
+
+    private static class ItemService implements IPxCrudServiceBase<String, String, String> {
+        private final List<String> items = List.of("a", "b", "c");
+        private boolean paging = true;
+        private PxPageRequest lastRequest;
+
+        @Override
+        public Class<String> provideEntityClass() {
+            return String.class;
+        }
+
+        @Override
+        public List<String> findAll() {
+            return items;
+        }
+
+        @Override
+        public PxPage<String> findPage(PxPageRequest request) {
+            if (!paging) {
+                return IPxCrudServiceBase.super.findPage(request);
+            }
+            lastRequest = request;
+            List<String> page = items.subList(0, Math.min(request.getSize(), items.size()));
+            String next = request.getAfter() != null && page.size() == request.getSize() ? page.get(page.size() - 1) : null;
+            return new PxPage<>(page, request.getPage(), request.getSize(), null, next);
+        }
+
+        @Override
+        public String findById(String id) {
+            return "item-" + id;
+        }
+
+        @Override
+        public List<String> findByIds(List<String> ids) {
+            return List.of();
+        }
+
+        @Override
+        public String save(String entity) {
+            return entity;
+        }
+
+        @Override
+        public String update(String id, String entity) {
+            return entity;
+        }
+
+        @Override
+        public void delete(String id) {
+        }
+
+        @Override
+        public List<String> processAction(String name, Map<String, Object> params) {
+            return List.of();
+        }
+    }
+
+    private static class AllowAll implements IPxAccessControlBase<String, String> {
+
+        @Override
+        public void canFindAll(String userId, String authToken) {
+        }
+
+        @Override
+        public void canFindById(String userId, String authToken, String id) {
+        }
+
+        @Override
+        public void canFindByIds(String userId, String authToken, List<String> ids) {
+        }
+
+        @Override
+        public void canCreate(String userId, String authToken, String entity) {
+        }
+
+        @Override
+        public void canUpdate(String userId, String authToken, String id, String entity) {
+        }
+
+        @Override
+        public void canDelete(String userId, String authToken, String id) {
+        }
+
+        @Override
+        public void canDoAction(String userId, String authToken, String name, Map<String, Object> params) {
+        }
+    }
+
+}
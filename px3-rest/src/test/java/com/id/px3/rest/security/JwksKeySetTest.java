@@ -0,0 +1,110 @@
+package com.id.px3.rest.security;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwksKeySetTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testParsesRsaAndEcKeys() throws Exception {
+        KeyPair rsa = TestKeys.rsa();
+        KeyPair ec = TestKeys.ec();
+        Map<String, Object> rsaJwk = new HashMap<>(TestKeys.rsaJwk("rsa-1", rsa));
+        // Private members are never published again
+        rsaJwk.put("d", "secret");
+        Map<String, Object> encryptionJwk = new HashMap<>(TestKeys.rsaJwk("enc-1", TestKeys.rsa()));
+        encryptionJwk.put("use", "enc");
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(rsaJwk, TestKeys.ecJwk("ec-1", ec), encryptionJwk));
+
+        JwksKeySet keySet = new JwksKeySet(jwks.toString(), Duration.ofHours(1));
+
+        assertEquals(rsa.getPublic(), keySet.getKey("rsa-1", RSAPublicKey.class));
+        assertEquals(ec.getPublic(), keySet.getKey("ec-1", ECPublicKey.class));
+        assertNull(keySet.getKey("rsa-1", ECPublicKey.class), "A key of another type should not be returned.");
+        assertNull(keySet.getKey("enc-1", RSAPublicKey.class), "Encryption keys should be skipped.");
+        assertNull(keySet.getKey(null, RSAPublicKey.class), "A token without key ID should only match a single key.");
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> published = (List<Map<String, Object>>) keySet.toJwks().get("keys");
+        assertEquals(2, published.size());
+        assertFalse(published.get(0).containsKey("d"), "Private members should not be published.");
+    }
+
+    @Test
+    void testSingleKeyMatchesTokenWithoutKeyId() throws Exception {
+        KeyPair rsa = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", rsa)));
+
+        JwksKeySet keySet = new JwksKeySet(jwks.toString(), Duration.ofHours(1));
+
+        assertEquals(rsa.getPublic(), keySet.getKey(null, RSAPublicKey.class));
+    }
+
+    @Test
+    void testUnknownKeyIdReloadsRotatedKeys() throws Exception {
+        KeyPair first = TestKeys.rsa();
+        KeyPair second = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first)));
+        JwksKeySet keySet = new JwksKeySet(jwks.toString(), Duration.ofHours(1));
+
+        // New key published before tokens are signed with it
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first), TestKeys.rsaJwk("rsa-2", second)));
+        // Reloads for unknown key IDs are rate limited
+        Thread.sleep(1100);
+
+        assertEquals(second.getPublic(), keySet.getKey("rsa-2", RSAPublicKey.class), "A rotated key should be loaded without waiting for the reload interval.");
+        assertEquals(first.getPublic(), keySet.getKey("rsa-1", RSAPublicKey.class));
+    }
+
+    @Test
+    void testKeyRemovalNotifiesListeners() throws Exception {
+        KeyPair first = TestKeys.rsa();
+        KeyPair second = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first)));
+        JwksKeySet keySet = new JwksKeySet(jwks.toString(), Duration.ZERO);
+        AtomicInteger removals = new AtomicInteger();
+        keySet.onKeyRemoval(removals::incrementAndGet);
+
+        // Adding a key keeps what was verified
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first), TestKeys.rsaJwk("rsa-2", second)));
+        assertNotNull(keySet.getKey("rsa-2", RSAPublicKey.class));
+        assertEquals(0, removals.get());
+
+        // Removing one drops it
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-2", second)));
+        assertNull(keySet.getKey("rsa-1", RSAPublicKey.class), "A removed key should not be returned.");
+        assertEquals(1, removals.get(), "Listeners should run when a key is removed.");
+    }
+
+    @Test
+    void testInvalidDocumentKeepsCurrentKeys() throws Exception {
+        KeyPair rsa = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", rsa)));
+        JwksKeySet keySet = new JwksKeySet(jwks.toString(), Duration.ZERO);
+
+        TestKeys.writeJwks(jwks, List.of());
+
+        assertEquals(rsa.getPublic(), keySet.getKey("rsa-1", RSAPublicKey.class), "A document without keys should not replace the current one.");
+    }
+
+}
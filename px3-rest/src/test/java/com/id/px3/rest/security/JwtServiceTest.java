@@ -0,0 +1,143 @@
+package com.id.px3.rest.security;
+
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.id.px3.error.PxException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtServiceTest {
+
+    private static final String ISSUER = "px3";
+
+    @TempDir
+    Path dir;
+
+    private static JwtService service(String algorithm, Path jwks, Path privateKey, String keyId) {
+        JwtService service = new JwtService();
+        ReflectionTestUtils.setField(service, "secret", "secret");
+        ReflectionTestUtils.setField(service, "issuer", ISSUER);
+        ReflectionTestUtils.setField(service, "algorithmName", algorithm);
+        ReflectionTestUtils.setField(service, "privateKeyLocation", privateKey != null ? privateKey.toString() : "");
+        ReflectionTestUtils.setField(service, "keyId", keyId);
+        ReflectionTestUtils.setField(service, "jwksLocation", jwks != null ? jwks.toString() : "");
+        ReflectionTestUtils.setField(service, "jwksReloadInterval", "0ms");
+        ReflectionTestUtils.setField(service, "cacheSize", 100);
+        service.init();
+        return service;
+    }
+
+    private static String sign(String kid, KeyPair keyPair) {
+        return JWT.create()
+                .withKeyId(kid)
+                .withSubject("user-1")
+                .withIssuer(ISSUER)
+                .withExpiresAt(Instant.now().plusSeconds(3600))
+                .withClaim("roles", List.of("user"))
+                .sign(Algorithm.RSA256(null, (RSAPrivateKey) keyPair.getPrivate()));
+    }
+
+    @Test
+    void testRs256RoundTrip() throws Exception {
+        KeyPair rsa = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        Path pem = dir.resolve("private.pem");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", rsa)));
+        TestKeys.writePem(pem, rsa.getPrivate());
+        JwtService service = service("RS256", jwks, pem, "rsa-1");
+
+        String token = service.generateToken("user-1", Set.of("admin"), Duration.ofHours(1));
+
+        assertEquals("rsa-1", JWT.decode(token).getKeyId(), "The signing key ID should be written in the header.");
+        JwtPrincipal principal = service.validateTokenAndGetPrincipal(token, Set.of("admin"));
+        assertEquals("user-1", principal.subject());
+        assertEquals(Set.of("admin"), principal.roles());
+        assertEquals(Map.of("keys", List.of(TestKeys.rsaJwk("rsa-1", rsa))), service.getJwks());
+    }
+
+    @Test
+    void testEs256RoundTrip() throws Exception {
+        KeyPair ec = TestKeys.ec();
+        Path jwks = dir.resolve("jwks.json");
+        Path pem = dir.resolve("private.pem");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.ecJwk("ec-1", ec)));
+        TestKeys.writePem(pem, ec.getPrivate());
+        JwtService service = service("ES256", jwks, pem, "ec-1");
+
+        String token = service.generateToken("user-1", Set.of("admin"), Duration.ofHours(1));
+
+        assertEquals("user-1", service.validateTokenAndGetSubject(token));
+        assertThrows(PxException.class, () -> service.validateTokenAndGetPrincipal(token, Set.of("root")),
+                "A token without the required roles should be rejected.");
+    }
+
+    @Test
+    void testVerifierCannotSign() throws Exception {
+        KeyPair rsa = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", rsa)));
+        JwtService service = service("RS256", jwks, null, "");
+
+        assertThrows(IllegalStateException.class, () -> service.generateToken("user-1", Set.of(), Duration.ofHours(1)));
+        assertEquals("user-1", service.validateTokenAndGetSubject(sign("rsa-1", rsa)));
+    }
+
+    @Test
+    void testTokenOfUnknownKeyIsRejected() throws Exception {
+        KeyPair rsa = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", rsa)));
+        JwtService service = service("RS256", jwks, null, "");
+
+        // Same key ID, different key
+        PxException e = assertThrows(PxException.class,
+                () -> service.validateTokenAndGetPrincipal(sign("rsa-1", TestKeys.rsa()), Set.of()));
+        assertEquals(HttpStatus.FORBIDDEN, e.getStatusCode());
+    }
+
+    @Test
+    void testTokenOfRotatedKeyIsVerified() throws Exception {
+        KeyPair first = TestKeys.rsa();
+        KeyPair second = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first)));
+        JwtService service = service("RS256", jwks, null, "");
+
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first), TestKeys.rsaJwk("rsa-2", second)));
+
+        assertEquals("user-1", service.validateTokenAndGetSubject(sign("rsa-2", second)));
+    }
+
+    @Test
+    void testTokensOfRemovedKeyAreVerifiedAgain() throws Exception {
+        KeyPair first = TestKeys.rsa();
+        KeyPair second = TestKeys.rsa();
+        Path jwks = dir.resolve("jwks.json");
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-1", first)));
+        JwtService service = service("RS256", jwks, null, "");
+        String oldToken = sign("rsa-1", first);
+        // Verified and cached
+        service.validateTokenAndGetPrincipal(oldToken, Set.of());
+
+        // Key rotated out, noticed on the next verification
+        TestKeys.writeJwks(jwks, List.of(TestKeys.rsaJwk("rsa-2", second)));
+        service.validateTokenAndGetPrincipal(sign("rsa-2", second), Set.of());
+
+        assertThrows(PxException.class, () -> service.validateTokenAndGetPrincipal(oldToken, Set.of()),
+                "A token of a removed key should not be answered from the cache.");
+    }
+
+}
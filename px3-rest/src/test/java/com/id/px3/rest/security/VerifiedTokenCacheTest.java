@@ -0,0 +1,72 @@
+package com.id.px3.rest.security;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerifiedTokenCacheTest {
+
+    private static JwtPrincipal principal(String subject) {
+        return new JwtPrincipal(subject, Set.of("user"), Instant.now().plusSeconds(3600));
+    }
+
+    @Test
+    void testVerifiedTokenIsCached() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        JwtPrincipal principal = principal("user-1");
+
+        cache.put("token", principal, cache.getGeneration());
+
+        assertEquals(principal, cache.get("token"));
+        assertNull(cache.get("other"));
+    }
+
+    @Test
+    void testExpiredTokenIsNotReturned() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        JwtPrincipal expired = new JwtPrincipal("user-1", Set.of(), Instant.now().minusSeconds(1));
+
+        cache.put("token", expired, cache.getGeneration());
+
+        assertNull(cache.get("token"));
+    }
+
+    @Test
+    void testClearDropsTokens() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+        cache.put("token", principal("user-1"), cache.getGeneration());
+
+        cache.clear();
+
+        assertNull(cache.get("token"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    void testTokenVerifiedBeforeClearIsNotStored() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(100);
+
+        // Verification started, then the key is removed before the result is stored
+        long generation = cache.getGeneration();
+        cache.clear();
+        cache.put("token", principal("user-1"), generation);
+
+        assertNull(cache.get("token"), "A token verified under a removed key should not be cached.");
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        VerifiedTokenCache cache = new VerifiedTokenCache(10);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("token-" + i, principal("user-" + i), cache.getGeneration());
+        }
+
+        assertTrue(cache.getSize() <= 10, "The cache should not grow past its max size.");
+        assertNotNull(cache.get("token-99"), "The newest tokens should be kept.");
+    }
+
+}